@@ -13,9 +13,10 @@ repositories {
 dependencies {
     compileOnly(libs.lettuce)
 
-    // Optional dependencies used for parsers
+    // Optional dependencies used for parsers and serializers
     compileOnly(libs.protobuf)
     compileOnly(libs.gson)
+    compileOnly(libs.jackson.cbor)
 }
 
 publishing {
@@ -0,0 +1,138 @@
+package com.fabiodm.pat.bench;
+
+import io.lettuce.core.codec.CompressionCodec;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This record holds the options of a benchmark run, parsed from {@code --name=value} arguments.
+ *
+ * @param redisUri    the URI of the Redis server, or null to use the in-process RESP stand-in
+ * @param publishers  the number of publishing clients, each one driven by its own thread
+ * @param channels    the number of channels the messages are spread across
+ * @param subscribers the number of subscribing clients, each one subscribed to every channel
+ * @param payload     the size of every message in bytes
+ * @param rate        the target number of messages per second, across all the publishers
+ * @param warmup      the time spent publishing before latencies are recorded
+ * @param duration    the time spent publishing while latencies are recorded
+ * @param mode        the method used to publish the messages
+ * @param compression the compression type, or null to disable compression
+ * @param window      the aggregation window used by {@link Mode#AGGREGATED}
+ * @param histogram   the file the full percentile distribution is written to, or null
+ */
+record BenchOptions(String redisUri,
+                    int publishers,
+                    int channels,
+                    int subscribers,
+                    int payload,
+                    int rate,
+                    Duration warmup,
+                    Duration duration,
+                    Mode mode,
+                    CompressionCodec.CompressionType compression,
+                    Duration window,
+                    String histogram) {
+
+    /**
+     * The method used to publish the messages.
+     */
+    enum Mode {
+        SYNC,
+        ASYNC,
+        AGGREGATED
+    }
+
+    static final String USAGE = """
+            Usage: pat-bench [--name=value ...]
+              --redis=<uri>          Redis server to use (default: in-process RESP stand-in)
+              --publishers=<n>       publishing clients (default: 1)
+              --channels=<n>         channels the messages are spread across (default: 1)
+              --subscribers=<n>      subscribing clients, each subscribed to every channel (default: 1)
+              --payload=<bytes>      message size, at least 8 bytes (default: 128)
+              --rate=<msgs/s>        target publish rate across all publishers (default: 10000)
+              --warmup=<seconds>     warmup time, not recorded (default: 5)
+              --duration=<seconds>   measured time (default: 30)
+              --mode=<mode>          sync, async or aggregated (default: async)
+              --compression=<type>   none, gzip or deflate (default: none)
+              --window-us=<micros>   aggregation window for the aggregated mode (default: 500)
+              --histogram=<file>     write the full percentile distribution to a file
+            """;
+
+    /**
+     * Parses the options from the command line arguments.
+     *
+     * @param args the command line arguments
+     * @return the parsed options
+     * @throws IllegalArgumentException if an argument is unknown or invalid
+     */
+    static BenchOptions parse(final String[] args) {
+        final Map<String, String> values = new HashMap<>();
+        for (final String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Invalid argument: " + arg);
+            }
+
+            final int separator = arg.indexOf('=');
+            values.put(arg.substring(2, separator), arg.substring(separator + 1));
+        }
+
+        final BenchOptions options = new BenchOptions(
+                values.remove("redis"),
+                positive(values.remove("publishers"), 1, "publishers"),
+                positive(values.remove("channels"), 1, "channels"),
+                positive(values.remove("subscribers"), 1, "subscribers"),
+                positive(values.remove("payload"), 128, "payload"),
+                positive(values.remove("rate"), 10_000, "rate"),
+                Duration.ofSeconds(nonNegative(values.remove("warmup"), 5, "warmup")),
+                Duration.ofSeconds(positive(values.remove("duration"), 30, "duration")),
+                Mode.valueOf(values.getOrDefault("mode", "async").toUpperCase(Locale.ROOT)),
+                compression(values.getOrDefault("compression", "none")),
+                Duration.ofNanos(positive(values.remove("window-us"), 500, "window-us") * 1_000L),
+                values.remove("histogram")
+        );
+
+        values.remove("mode");
+        values.remove("compression");
+        if (!values.isEmpty()) {
+            throw new IllegalArgumentException("Unknown options: " + values.keySet());
+        }
+        if (options.payload() < Long.BYTES) {
+            throw new IllegalArgumentException("The payload must be at least " + Long.BYTES + " bytes");
+        }
+        // Every publisher needs at least a nanosecond between two messages, or it would never advance its schedule.
+        if (options.rate() > TimeUnit.SECONDS.toNanos(1) * options.publishers()) {
+            throw new IllegalArgumentException("The rate cannot exceed one message per nanosecond per publisher");
+        }
+        return options;
+    }
+
+    private static int positive(final String value, final int defaultValue, final String name) {
+        if (value == null) return defaultValue;
+
+        final int parsed = Integer.parseInt(value);
+        if (parsed <= 0) {
+            throw new IllegalArgumentException("The option " + name + " must be positive");
+        }
+        return parsed;
+    }
+
+    private static int nonNegative(final String value, final int defaultValue, final String name) {
+        if (value == null) return defaultValue;
+
+        final int parsed = Integer.parseInt(value);
+        if (parsed < 0) {
+            throw new IllegalArgumentException("The option " + name + " must not be negative");
+        }
+        return parsed;
+    }
+
+    private static CompressionCodec.CompressionType compression(final String value) {
+        if (value.equalsIgnoreCase("none")) return null;
+
+        return CompressionCodec.CompressionType.valueOf(value.toUpperCase(Locale.ROOT));
+    }
+}
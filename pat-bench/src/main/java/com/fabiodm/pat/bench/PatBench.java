@@ -0,0 +1,306 @@
+package com.fabiodm.pat.bench;
+
+import com.fabiodm.pat.PatBuilder;
+import com.fabiodm.pat.api.PatClient;
+import io.lettuce.core.RedisURI;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class is the entry point of the Pat load generator.
+ * It drives a fixed publish rate through {@link PatClient} and measures the latency between
+ * the time each message was supposed to be sent and the time a handler received it.
+ * Measuring from the intended send time, instead of the actual one, keeps the results correct
+ * when the publishers fall behind schedule (coordinated omission).
+ */
+public final class PatBench {
+
+    private final BenchOptions options;
+
+    // The latencies in nanoseconds of the messages sent after the warmup.
+    private final Recorder recorder = new Recorder(3);
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    // The bytes allocated by the publisher threads, recorded before they exit.
+    private final LongAdder publisherAllocated = new LongAdder();
+
+    // The intended send time from which latencies are recorded.
+    private volatile long measureStart;
+
+    private PatBench(final BenchOptions options) {
+        this.options = options;
+    }
+
+    public static void main(final String[] args) throws Exception {
+        if (Arrays.asList(args).contains("--help")) {
+            System.out.println(BenchOptions.USAGE);
+            return;
+        }
+
+        final BenchOptions options;
+        try {
+            options = BenchOptions.parse(args);
+        } catch (final IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(BenchOptions.USAGE);
+            System.exit(1);
+            return;
+        }
+
+        new PatBench(options).run();
+        System.exit(0);
+    }
+
+    private void run() throws Exception {
+        RespServer server = null;
+        final RedisURI uri;
+        if (this.options.redisUri() != null) {
+            uri = RedisURI.create(this.options.redisUri());
+        } else {
+            server = new RespServer();
+            uri = RedisURI.create("redis://127.0.0.1:" + server.port());
+        }
+
+        final List<PatClient> subscribers = new ArrayList<>();
+        final List<PatClient> publishers = new ArrayList<>();
+        try {
+            for (int i = 0; i < this.options.subscribers(); i++) {
+                final PatClient subscriber = this.client(uri);
+                final Object listener = new Object();
+                subscriber.register(listener);
+                for (final String channel : this.channels()) {
+                    subscriber.subscribeToChannel(listener, channel, event -> this.receive(event.message()));
+                }
+                subscribers.add(subscriber);
+            }
+
+            for (int i = 0; i < this.options.publishers(); i++) {
+                publishers.add(this.client(uri));
+            }
+
+            this.publish(publishers);
+            this.awaitDelivery();
+            this.report();
+        } finally {
+            publishers.forEach(PatClient::shutdown);
+            subscribers.forEach(PatClient::shutdown);
+            if (server != null) {
+                server.close();
+            }
+        }
+    }
+
+    private PatClient client(final RedisURI uri) {
+        final PatBuilder builder = PatBuilder.create(uri);
+        if (this.options.compression() != null) {
+            builder.withCompression(this.options.compression());
+        }
+        if (this.options.mode() == BenchOptions.Mode.AGGREGATED) {
+            builder.withAggregation(this.options.window(), 64 * 1024);
+        }
+
+        final PatClient client = builder.build();
+        client.connect();
+        return client;
+    }
+
+    private String[] channels() {
+        final String[] channels = new String[this.options.channels()];
+        for (int i = 0; i < channels.length; i++) {
+            channels[i] = "pat-bench-" + i;
+        }
+        return channels;
+    }
+
+    private void receive(final byte[] message) {
+        this.received.increment();
+
+        final long now = System.nanoTime();
+        final long intended = ByteBuffer.wrap(message).getLong();
+        if (intended >= this.measureStart) {
+            this.recorder.recordValue(Math.max(0, now - intended));
+        }
+    }
+
+    private void publish(final List<PatClient> publishers) throws InterruptedException {
+        final String[] channels = this.channels();
+        final long interval = TimeUnit.SECONDS.toNanos(1) * publishers.size() / this.options.rate();
+        final long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        final long end = start + this.options.warmup().toNanos() + this.options.duration().toNanos();
+        this.measureStart = start + this.options.warmup().toNanos();
+
+        System.out.printf(Locale.ROOT, "Publishing %d msg/s for %ds (+%ds warmup), %s mode, %d-byte payloads%n",
+                this.options.rate(),
+                this.options.duration().toSeconds(),
+                this.options.warmup().toSeconds(),
+                this.options.mode().name().toLowerCase(Locale.ROOT),
+                this.options.payload());
+
+        final List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < publishers.size(); i++) {
+            final PatClient publisher = publishers.get(i);
+            final int index = i;
+            // Stagger the publishers so that together they produce an even rate.
+            final long offset = interval * i / publishers.size();
+
+            final Thread thread = new Thread(() -> {
+                try {
+                    this.drive(publisher, channels, index, start + offset, end, interval);
+                } finally {
+                    this.publisherAllocated.add(Math.max(0, currentThreadAllocatedBytes()));
+                }
+            }, "pat-bench-publisher-" + i);
+            thread.start();
+            threads.add(thread);
+        }
+
+        // Joining guarantees the publishers are not counted again among the live threads.
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    private void drive(final PatClient publisher,
+                       final String[] channels,
+                       final int index,
+                       final long start,
+                       final long end,
+                       final long interval) {
+        final byte[] template = new byte[this.options.payload()];
+        final Random random = new Random(index);
+        for (int i = Long.BYTES; i < template.length; i++) {
+            // Lowercase letters, so that compression has something realistic to work with.
+            template[i] = (byte) ('a' + random.nextInt(26));
+        }
+
+        long intended = start;
+        for (long sequence = 0; intended < end; sequence++, intended = start + sequence * interval) {
+            long now;
+            while ((now = System.nanoTime()) < intended) {
+                LockSupport.parkNanos(intended - now);
+            }
+
+            final byte[] message = template.clone();
+            ByteBuffer.wrap(message).putLong(intended);
+            final String channel = channels[(int) ((sequence * this.options.publishers() + index) % channels.length)];
+
+            try {
+                switch (this.options.mode()) {
+                    case SYNC -> publisher.send(channel, message);
+                    case ASYNC -> publisher.sendAsync(channel, message).whenComplete(this::complete);
+                    case AGGREGATED -> publisher.sendAggregated(channel, message).whenComplete(this::complete);
+                }
+                this.sent.increment();
+            } catch (final RuntimeException e) {
+                this.failed.increment();
+            }
+        }
+    }
+
+    private void complete(final Long receivers, final Throwable throwable) {
+        if (throwable != null) {
+            this.failed.increment();
+        }
+    }
+
+    private void awaitDelivery() throws InterruptedException {
+        final long expected = this.sent.sum() * this.options.subscribers();
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (this.received.sum() < expected && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private void report() throws IOException {
+        final Histogram histogram = this.recorder.getIntervalHistogram();
+        final double seconds = (this.options.warmup().toNanos() + this.options.duration().toNanos()) / 1e9;
+        final long sentCount = this.sent.sum();
+        final long receivedCount = this.received.sum();
+
+        System.out.printf(Locale.ROOT, "Publishers: %d, channels: %d, subscribers: %d, compression: %s%n",
+                this.options.publishers(),
+                this.options.channels(),
+                this.options.subscribers(),
+                this.options.compression() == null ? "none" : this.options.compression());
+        System.out.printf(Locale.ROOT, "Sent:     %,d messages (%,.0f msg/s), %,d failed%n",
+                sentCount, sentCount / seconds, this.failed.sum());
+        System.out.printf(Locale.ROOT, "Received: %,d events (%,.0f events/s), %,d missing%n",
+                receivedCount, receivedCount / seconds, Math.max(0, sentCount * this.options.subscribers() - receivedCount));
+
+        System.out.println("Publish -> handler latency (us), corrected for coordinated omission:");
+        for (final double percentile : new double[]{50, 90, 99, 99.9, 99.99}) {
+            System.out.printf(Locale.ROOT, "  p%-6s %,12.1f%n",
+                    percentile, histogram.getValueAtPercentile(percentile) / 1e3);
+        }
+        System.out.printf(Locale.ROOT, "  max     %,12.1f%n", histogram.getMaxValue() / 1e3);
+
+        long collections = 0;
+        long collectionTime = 0;
+        for (final GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            collections += Math.max(0, gc.getCollectionCount());
+            collectionTime += Math.max(0, gc.getCollectionTime());
+        }
+        System.out.printf(Locale.ROOT, "GC: %d collections, %d ms%n", collections, collectionTime);
+
+        final long allocated = allocatedBytes();
+        if (allocated >= 0 && receivedCount > 0) {
+            final long total = allocated + this.publisherAllocated.sum();
+            System.out.printf(Locale.ROOT, "Allocated: %,d MB (%,d bytes per delivered event)%n",
+                    total / (1024 * 1024), total / receivedCount);
+        }
+
+        if (this.options.histogram() != null) {
+            try (PrintStream out = new PrintStream(new FileOutputStream(this.options.histogram()))) {
+                histogram.outputPercentileDistribution(out, 1000.0);
+            }
+        }
+    }
+
+    /*
+     * Sums the bytes allocated by the live threads, which include the Lettuce event loops.
+     * The publisher threads have exited by then, their allocations are recorded separately.
+     * Returns -1 if the JVM does not support allocation accounting.
+     */
+    private static long allocatedBytes() {
+        final com.sun.management.ThreadMXBean threads = allocationAccounting();
+        if (threads == null) return -1;
+
+        return Arrays.stream(threads.getThreadAllocatedBytes(threads.getAllThreadIds()))
+                .filter(bytes -> bytes > 0)
+                .sum();
+    }
+
+    /*
+     * Returns the bytes allocated by the current thread, or -1 if the JVM does not support allocation accounting.
+     */
+    private static long currentThreadAllocatedBytes() {
+        final com.sun.management.ThreadMXBean threads = allocationAccounting();
+        return threads != null ? threads.getCurrentThreadAllocatedBytes() : -1;
+    }
+
+    private static com.sun.management.ThreadMXBean allocationAccounting() {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads)
+                || !threads.isThreadAllocatedMemorySupported()
+                || !threads.isThreadAllocatedMemoryEnabled()) {
+            return null;
+        }
+        return threads;
+    }
+}
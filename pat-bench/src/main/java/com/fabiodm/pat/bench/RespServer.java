@@ -0,0 +1,271 @@
+package com.fabiodm.pat.bench;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class is a minimal in-process stand-in for a Redis server speaking RESP3.
+ * It only implements the commands Pat needs for pub/sub (HELLO, PING, SUBSCRIBE, UNSUBSCRIBE and PUBLISH),
+ * so the benchmark can run without a Redis binary. It is not meant to model Redis performance.
+ */
+final class RespServer implements AutoCloseable {
+
+    private final ServerSocket serverSocket;
+    private final Map<String, Set<Client>> subscriptions = new ConcurrentHashMap<>();
+    private final Set<Client> clients = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger ids = new AtomicInteger();
+
+    private volatile boolean running = true;
+
+    /**
+     * Starts a RespServer listening on a random port of the loopback interface.
+     *
+     * @throws IOException if the server socket cannot be opened
+     */
+    RespServer() throws IOException {
+        this.serverSocket = new ServerSocket(0, 128, InetAddress.getLoopbackAddress());
+
+        final Thread acceptor = new Thread(this::accept, "resp-server-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Returns the port the server is listening on.
+     *
+     * @return the port of the server
+     */
+    int port() {
+        return this.serverSocket.getLocalPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.running = false;
+        this.serverSocket.close();
+        for (final Client client : this.clients) {
+            client.close();
+        }
+    }
+
+    private void accept() {
+        while (this.running) {
+            try {
+                final Socket socket = this.serverSocket.accept();
+                socket.setTcpNoDelay(true);
+
+                final Client client = new Client(socket, this.ids.incrementAndGet());
+                this.clients.add(client);
+
+                final Thread thread = new Thread(client::serve, "resp-server-client-" + client.id);
+                thread.setDaemon(true);
+                thread.start();
+            } catch (final IOException e) {
+                if (this.running) {
+                    System.err.println("RESP server failed to accept a connection: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private final class Client {
+
+        private final Socket socket;
+        private final int id;
+        private final InputStream in;
+        private final OutputStream out;
+        private final Set<String> channels = ConcurrentHashMap.newKeySet();
+
+        private Client(final Socket socket, final int id) throws IOException {
+            this.socket = socket;
+            this.id = id;
+            this.in = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+            this.out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+        }
+
+        private void serve() {
+            try {
+                while (running) {
+                    final List<byte[]> command = this.readCommand();
+                    this.execute(command);
+                    // Only flush once the pipelined commands have all been read.
+                    if (this.in.available() == 0) {
+                        synchronized (this.out) {
+                            this.out.flush();
+                        }
+                    }
+                }
+            } catch (final IOException e) {
+                // The client disconnected.
+            } finally {
+                this.close();
+            }
+        }
+
+        private void execute(final List<byte[]> command) throws IOException {
+            final String name = new String(command.get(0), StandardCharsets.US_ASCII).toUpperCase(Locale.ROOT);
+            switch (name) {
+                case "HELLO" -> this.hello();
+                case "PING" -> this.write("+PONG\r\n");
+                case "SUBSCRIBE" -> this.subscribe(command);
+                case "UNSUBSCRIBE" -> this.unsubscribe(command);
+                case "PUBLISH" -> this.publish(command);
+                case "CLIENT", "SELECT", "AUTH" -> this.write("+OK\r\n");
+                case "QUIT" -> {
+                    this.write("+OK\r\n");
+                    this.close();
+                }
+                default -> this.write("-ERR unknown command '" + name + "'\r\n");
+            }
+        }
+
+        private void hello() throws IOException {
+            this.write("%7\r\n"
+                    + "+server\r\n+redis\r\n"
+                    + "+version\r\n+7.2.0\r\n"
+                    + "+proto\r\n:3\r\n"
+                    + "+id\r\n:" + this.id + "\r\n"
+                    + "+mode\r\n+standalone\r\n"
+                    + "+role\r\n+master\r\n"
+                    + "+modules\r\n*0\r\n");
+        }
+
+        private void subscribe(final List<byte[]> command) throws IOException {
+            for (int i = 1; i < command.size(); i++) {
+                final String channel = new String(command.get(i), StandardCharsets.UTF_8);
+                this.channels.add(channel);
+                subscriptions.computeIfAbsent(channel, k -> ConcurrentHashMap.newKeySet()).add(this);
+                this.push("subscribe", command.get(i), this.channels.size());
+            }
+        }
+
+        private void unsubscribe(final List<byte[]> command) throws IOException {
+            for (int i = 1; i < command.size(); i++) {
+                final String channel = new String(command.get(i), StandardCharsets.UTF_8);
+                this.channels.remove(channel);
+                final Set<Client> subscribers = subscriptions.get(channel);
+                if (subscribers != null) {
+                    subscribers.remove(this);
+                }
+                this.push("unsubscribe", command.get(i), this.channels.size());
+            }
+        }
+
+        private void publish(final List<byte[]> command) throws IOException {
+            final byte[] channel = command.get(1);
+            final byte[] message = command.get(2);
+
+            long receivers = 0;
+            final Set<Client> subscribers = subscriptions.get(new String(channel, StandardCharsets.UTF_8));
+            if (subscribers != null) {
+                for (final Client subscriber : subscribers) {
+                    subscriber.message(channel, message, subscriber != this);
+                    receivers++;
+                }
+            }
+            this.write(":" + receivers + "\r\n");
+        }
+
+        private void message(final byte[] channel, final byte[] message, final boolean flush) {
+            try {
+                synchronized (this.out) {
+                    this.out.write(">3\r\n$7\r\nmessage\r\n".getBytes(StandardCharsets.US_ASCII));
+                    this.writeBulk(channel);
+                    this.writeBulk(message);
+                    if (flush) {
+                        this.out.flush();
+                    }
+                }
+            } catch (final IOException e) {
+                this.close();
+            }
+        }
+
+        private void push(final String kind, final byte[] channel, final int count) throws IOException {
+            synchronized (this.out) {
+                this.out.write((">3\r\n$" + kind.length() + "\r\n" + kind + "\r\n").getBytes(StandardCharsets.US_ASCII));
+                this.writeBulk(channel);
+                this.out.write((":" + count + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            }
+        }
+
+        private void writeBulk(final byte[] bytes) throws IOException {
+            this.out.write(("$" + bytes.length + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            this.out.write(bytes);
+            this.out.write('\r');
+            this.out.write('\n');
+        }
+
+        private void write(final String reply) throws IOException {
+            synchronized (this.out) {
+                this.out.write(reply.getBytes(StandardCharsets.US_ASCII));
+            }
+        }
+
+        private List<byte[]> readCommand() throws IOException {
+            final int type = this.in.read();
+            if (type == -1) {
+                throw new EOFException();
+            }
+            if (type != '*') {
+                throw new IOException("Inline commands are not supported");
+            }
+
+            final int count = (int) this.readNumber();
+            final List<byte[]> arguments = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                if (this.in.read() != '$') {
+                    throw new IOException("Expected a bulk string");
+                }
+
+                final byte[] argument = this.in.readNBytes((int) this.readNumber());
+                this.in.skipNBytes(2);
+                arguments.add(argument);
+            }
+            return arguments;
+        }
+
+        private long readNumber() throws IOException {
+            long value = 0;
+            int b;
+            while ((b = this.in.read()) != '\r') {
+                if (b == -1) {
+                    throw new EOFException();
+                }
+                value = value * 10 + (b - '0');
+            }
+            this.in.skipNBytes(1);
+            return value;
+        }
+
+        private void close() {
+            clients.remove(this);
+            for (final String channel : this.channels) {
+                final Set<Client> subscribers = subscriptions.get(channel);
+                if (subscribers != null) {
+                    subscribers.remove(this);
+                }
+            }
+
+            try {
+                this.socket.close();
+            } catch (final IOException ignored) {
+            }
+        }
+    }
+}
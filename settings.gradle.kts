@@ -0,0 +1,3 @@
+rootProject.name = "pat"
+
+include("pat-bench")
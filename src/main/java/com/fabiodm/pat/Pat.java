@@ -2,22 +2,39 @@ package com.fabiodm.pat;
 
 import com.fabiodm.pat.api.PatClient;
 import com.fabiodm.pat.api.event.PatEvent;
+import com.fabiodm.pat.api.event.PatKeyspaceEvent;
+import com.fabiodm.pat.api.event.PatKeyspaceOperation;
+import com.fabiodm.pat.api.serializer.PatSerializer;
+import com.fabiodm.pat.api.serializer.PatSerializers;
 import com.fabiodm.pat.codec.ByteArrayCodec;
+import com.fabiodm.pat.codec.PatCompressor;
+import com.fabiodm.pat.codec.PatFrame;
 import com.fabiodm.pat.handler.PatHandler;
+import com.fabiodm.pat.handler.PatKeyspaceIndex;
+import com.fabiodm.pat.handler.PatWatchdog;
 import com.fabiodm.pat.handler.impl.ConsumerSubscription;
+import com.fabiodm.pat.handler.impl.KeyspaceSubscription;
 import io.lettuce.core.ClientOptions;
 import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisException;
 import io.lettuce.core.RedisFuture;
 import io.lettuce.core.RedisURI;
-import io.lettuce.core.codec.CompressionCodec;
-import io.lettuce.core.codec.RedisCodec;
 import io.lettuce.core.pubsub.StatefulRedisPubSubConnection;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
 /**
@@ -33,14 +50,39 @@ public final class Pat implements PatClient {
     // The connection to the Redis server.
     private StatefulRedisPubSubConnection<String, byte[]> connection;
 
-    // The compression type for the messages.
-    private final CompressionCodec.CompressionType compressionType;
+    // The compressor for the message bodies, null if compression is disabled.
+    private final PatCompressor compressor;
 
     // The listener for Redis pub/sub messages.
     private final PatListener patListener;
 
+    // The aggregator packing small messages into batch frames, null if aggregation is disabled.
+    private final PatAggregator aggregator;
+
+    // The serializer preferred for the objects sent by this client, null to look it up in the registry.
+    private final PatSerializer serializer;
+
+    // The journal for the messages that cannot be published right away, null if the outbox is disabled.
+    private final PatOutbox outbox;
+    // The maximum number of asynchronous publishes in flight before messages go to the outbox.
+    private final int maxInFlight;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    // The watchdog timing the subscriptions, null if disabled.
+    private final PatWatchdog watchdog;
+
+    // Whether the messages sent are stamped with an id.
+    private final boolean messageIds;
+    // The deduplicator dropping the messages received twice, null if deduplication is disabled.
+    private final PatDeduplicator deduplicator;
+
+    // The claim check storing the large bodies, also used to fetch the bodies stored by other clients.
+    private final PatClaimCheck claimCheck;
+
     // The set of listeners for PatEvents.
     private final Map<Class<?>, PatHandler> listeners = new ConcurrentHashMap<>();
+    // The keyspace subscriptions of every listener, indexed by key prefix.
+    private final PatKeyspaceIndex keyspace = new PatKeyspaceIndex();
 
     private final boolean isPatRedisClient;
 
@@ -49,39 +91,68 @@ public final class Pat implements PatClient {
      *
      * @param URI     the RedisURI for the Redis server
      * @param options the ClientOptions for the Redis client
+     * @param builder the PatBuilder holding the rest of the configuration
      */
-    Pat(final RedisURI URI, final ClientOptions options, final CompressionCodec.CompressionType compressionType) {
+    Pat(final RedisURI URI, final ClientOptions options, final PatBuilder builder) {
         this.isPatRedisClient = true;
 
         this.redisClient = RedisClient.create(URI);
         this.redisClient.setOptions(options);
 
-        this.compressionType = compressionType;
+        this.compressor = builder.compressionType != null ? new PatCompressor(builder.compressionType) : null;
+        this.aggregator = this.createAggregator(builder);
+        this.serializer = builder.serializer;
+
+        this.outbox = builder.outbox;
+        this.maxInFlight = builder.maxInFlight;
+        this.watchdog = builder.watchdog;
+        this.messageIds = builder.messageIds;
+        this.deduplicator = builder.deduplicator;
+        this.claimCheck = new PatClaimCheck(this.redisClient, builder.claimThreshold, builder.claimTtl);
 
         this.patListener = new PatListener(this);
+        this.startOutbox();
     }
 
-    Pat(final RedisClient redisClient, final CompressionCodec.CompressionType compressionType) {
+    Pat(final RedisClient redisClient, final PatBuilder builder) {
         this.isPatRedisClient = false;
 
         this.redisClient = redisClient;
 
-        this.compressionType = compressionType;
+        this.compressor = builder.compressionType != null ? new PatCompressor(builder.compressionType) : null;
+        this.aggregator = this.createAggregator(builder);
+        this.serializer = builder.serializer;
+
+        this.outbox = builder.outbox;
+        this.maxInFlight = builder.maxInFlight;
+        this.watchdog = builder.watchdog;
+        this.messageIds = builder.messageIds;
+        this.deduplicator = builder.deduplicator;
+        this.claimCheck = new PatClaimCheck(this.redisClient, builder.claimThreshold, builder.claimTtl);
 
         this.patListener = new PatListener(this);
+        this.startOutbox();
+    }
+
+    private PatAggregator createAggregator(final PatBuilder builder) {
+        if (builder.aggregationWindow == null) return null;
+
+        return new PatAggregator(this, builder.aggregationWindow, builder.maxFrameSize);
+    }
+
+    private void startOutbox() {
+        if (this.outbox != null) {
+            this.outbox.start(this);
+        }
     }
 
     @Override
     public void connect() {
         if (!this.isConnected()) {
-            final RedisCodec<String, byte[]> codec;
-            if (this.compressionType != null) {
-                codec = CompressionCodec.valueCompressor(new ByteArrayCodec(), this.compressionType);
-            } else {
-                codec = new ByteArrayCodec();
-            }
-
-            this.connection = this.redisClient.connectPubSub(codec);
+            // Compression is applied by Pat itself, so that frame headers stay readable.
+            this.connection = this.redisClient.connectPubSub(new ByteArrayCodec());
+            // Opened here rather than on the first claimed message, which is received on the pub/sub I/O thread.
+            this.claimCheck.open();
             this.connection.addListener(this.patListener);
         }
     }
@@ -89,8 +160,27 @@ public final class Pat implements PatClient {
     @Override
     public void disconnect() {
         if (this.isConnected()) {
+            if (this.aggregator != null) {
+                this.awaitFlush();
+            }
+
             this.connection.removeListener(this.patListener);
             this.connection.close();
+            this.claimCheck.close();
+        }
+    }
+
+    /*
+     * Publishes the pending batches and waits for Redis to receive them, so that closing the connection does not drop them.
+     */
+    private void awaitFlush() {
+        final Duration timeout = this.connection.getTimeout();
+        try {
+            this.aggregator.flush().get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (final ExecutionException | TimeoutException e) {
+            LOGGER.error("Could not publish the pending batches before disconnecting: ", e);
         }
     }
 
@@ -98,6 +188,24 @@ public final class Pat implements PatClient {
     public void shutdown() {
         this.disconnect();
 
+        if (this.aggregator != null) {
+            this.aggregator.shutdown();
+        }
+
+        if (this.outbox != null) {
+            this.outbox.close();
+        }
+
+        if (this.watchdog != null) {
+            this.watchdog.close();
+        }
+
+        if (this.deduplicator != null) {
+            this.deduplicator.close();
+        }
+
+        this.claimCheck.close();
+
         if (this.isPatRedisClient) {
             this.redisClient.shutdown();
         }
@@ -105,10 +213,17 @@ public final class Pat implements PatClient {
 
     @Override
     public void register(final Object object) {
-        final PatHandler patHandler = new PatHandler(object);
-        this.listeners.put(object.getClass(), patHandler);
+        final PatHandler patHandler = new PatHandler(object, this.watchdog);
+        final PatHandler previous = this.listeners.put(object.getClass(), patHandler);
+        if (previous != null) {
+            this.keyspace.unregister(previous).forEach(this::punsubscribe);
+        }
+
         if (!patHandler.isEmpty()) {
             patHandler.getChannels().forEach(this::subscribe);
+            for (final KeyspaceSubscription subscription : patHandler.getKeyspaceSubscriptions()) {
+                this.keyspace.register(patHandler, subscription).forEach(this::psubscribe);
+            }
         }
     }
 
@@ -119,6 +234,7 @@ public final class Pat implements PatClient {
 
         this.listeners.remove(object.getClass());
         handler.getChannels().forEach(this::unsubscribe);
+        this.keyspace.unregister(handler).forEach(this::punsubscribe);
     }
 
     @Override
@@ -132,9 +248,34 @@ public final class Pat implements PatClient {
         handler.registerSubscription(channel, new ConsumerSubscription(consumer));
     }
 
+    @Override
+    public void subscribeToChannel(final Object listener,
+                                   final String channel,
+                                   final String key,
+                                   final Consumer<PatEvent> consumer) {
+        final PatHandler handler = this.listeners.get(listener.getClass());
+        if (handler == null) return;
+
+        this.subscribe(channel);
+        handler.registerSubscription(channel, key, new ConsumerSubscription(consumer));
+    }
+
+    @Override
+    public void subscribeToKeyspace(final Object listener,
+                                    final String prefix,
+                                    final Consumer<PatKeyspaceEvent> consumer,
+                                    final PatKeyspaceOperation... operations) {
+        final PatHandler handler = this.listeners.get(listener.getClass());
+        if (handler == null) return;
+
+        final KeyspaceSubscription subscription = new KeyspaceSubscription(prefix, List.of(operations), consumer);
+        handler.registerKeyspaceSubscription(subscription);
+        this.keyspace.register(handler, subscription).forEach(this::psubscribe);
+    }
+
     @Override
     public void send(final String channel, final byte[] message) {
-        this.connection.sync().publish(channel, message);
+        this.publish(channel, this.encode(null, (byte) 0, message));
     }
 
     @Override
@@ -144,7 +285,7 @@ public final class Pat implements PatClient {
 
     @Override
     public RedisFuture<Long> sendAsync(String channel, byte[] message) {
-        return this.connection.async().publish(channel, message);
+        return this.publishAsync(channel, this.encode(null, (byte) 0, message));
     }
 
     @Override
@@ -152,16 +293,335 @@ public final class Pat implements PatClient {
         return this.sendAsync(channel, message.getBytes(StandardCharsets.UTF_8));
     }
 
+    @Override
+    public void send(final String channel, final Object message) {
+        this.publish(channel, this.serialize(message));
+    }
+
+    @Override
+    public RedisFuture<Long> sendAsync(final String channel, final Object message) {
+        return this.publishAsync(channel, this.serialize(message));
+    }
+
+    @Override
+    public void send(final String channel, final String key, final byte[] message) {
+        this.publish(channel, this.encode(key, (byte) 0, message));
+    }
+
+    @Override
+    public void send(final String channel, final String key, final String message) {
+        this.send(channel, key, message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public RedisFuture<Long> sendAsync(final String channel, final String key, final byte[] message) {
+        return this.publishAsync(channel, this.encode(key, (byte) 0, message));
+    }
+
+    @Override
+    public RedisFuture<Long> sendAsync(final String channel, final String key, final String message) {
+        return this.sendAsync(channel, key, message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void send(final String channel, final long id, final byte[] message) {
+        this.publish(channel, this.encode(null, (byte) 0, requireId(id), message));
+    }
+
+    @Override
+    public void send(final String channel, final long id, final String message) {
+        this.send(channel, id, message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public RedisFuture<Long> sendAsync(final String channel, final long id, final byte[] message) {
+        return this.publishAsync(channel, this.encode(null, (byte) 0, requireId(id), message));
+    }
+
+    @Override
+    public RedisFuture<Long> sendAsync(final String channel, final long id, final String message) {
+        return this.sendAsync(channel, id, message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static long requireId(final long id) {
+        if (id == 0) {
+            throw new IllegalArgumentException("The message id 0 is reserved for messages without an id");
+        }
+        return id;
+    }
+
+    @Override
+    public CompletionStage<Long> sendAggregated(final String channel, final byte[] message) {
+        if (this.aggregator == null) {
+            return this.sendAsync(channel, message);
+        }
+        return this.aggregator.add(channel, message);
+    }
+
+    @Override
+    public CompletionStage<Long> sendAggregated(final String channel, final String message) {
+        return this.sendAggregated(channel, message.getBytes(StandardCharsets.UTF_8));
+    }
+
     @Override
     public StatefulRedisPubSubConnection<String, byte[]> getConnection() {
         return connection;
     }
 
+    @Override
+    public RedisClient getRedisClient() {
+        return this.redisClient;
+    }
+
     @Override
     public boolean isConnected() {
         return this.connection != null && this.connection.isOpen();
     }
 
+    /**
+     * Publishes an already encoded payload asynchronously.
+     * If the outbox is enabled and the message cannot be published, or its publish fails,
+     * it is appended to the outbox instead and the future completes with {@link PatOutbox#JOURNALED}.
+     *
+     * @param channel the channel to publish the payload to
+     * @param payload the encoded payload
+     * @return a {@link RedisFuture<Long>} instance
+     */
+    RedisFuture<Long> publishAsync(final String channel, final byte[] payload) {
+        if (this.outbox == null) {
+            return this.publishDirect(channel, payload);
+        }
+
+        if (!this.isConnected() || this.outbox.hasPending() || this.inFlight.get() >= this.maxInFlight) {
+            this.outbox.append(channel, payload);
+            return PatOutbox.journaled();
+        }
+
+        this.inFlight.incrementAndGet();
+        final RedisFuture<Long> future;
+        try {
+            future = this.publishDirect(channel, payload);
+        } catch (final RedisException e) {
+            this.inFlight.decrementAndGet();
+            this.outbox.append(channel, payload);
+            return PatOutbox.journaled();
+        } catch (final RuntimeException e) {
+            this.inFlight.decrementAndGet();
+            throw e;
+        }
+
+        final PatFuture<Long> receipt = new PatFuture<>();
+        future.whenComplete((receivers, throwable) -> {
+            this.inFlight.decrementAndGet();
+            if (throwable == null) {
+                receipt.complete(receivers);
+                return;
+            }
+
+            // The message may have reached Redis anyway, the outbox delivers at least once.
+            try {
+                this.outbox.append(channel, payload);
+                receipt.complete(PatOutbox.JOURNALED);
+            } catch (final RuntimeException e) {
+                throwable.addSuppressed(e);
+                receipt.completeExceptionally(throwable);
+            }
+        });
+        return receipt;
+    }
+
+    /**
+     * Publishes an already encoded payload synchronously.
+     * If the outbox is enabled and the message cannot be published, it is appended to the outbox instead.
+     *
+     * @param channel the channel to publish the payload to
+     * @param payload the encoded payload
+     */
+    private void publish(final String channel, final byte[] payload) {
+        if (this.outbox == null) {
+            this.publishSync(channel, payload);
+            return;
+        }
+
+        if (!this.isConnected() || this.outbox.hasPending()) {
+            this.outbox.append(channel, payload);
+            return;
+        }
+
+        try {
+            this.publishSync(channel, payload);
+        } catch (final RedisException e) {
+            // The message may have reached Redis anyway, the outbox delivers at least once.
+            this.outbox.append(channel, payload);
+        }
+    }
+
+    /**
+     * Publishes an already encoded payload asynchronously, bypassing the outbox.
+     *
+     * @param channel the channel to publish the payload to
+     * @param payload the encoded payload
+     * @return a {@link RedisFuture<Long>} instance
+     */
+    RedisFuture<Long> publishDirect(final String channel, final byte[] payload) {
+        if (this.claimCheck.isClaimable(payload)) {
+            return this.claimCheck.publishAsync(channel, payload);
+        }
+        return this.connection.async().publish(channel, payload);
+    }
+
+    /**
+     * Publishes an already encoded payload synchronously, bypassing the outbox.
+     *
+     * @param channel the channel to publish the payload to
+     * @param payload the encoded payload
+     */
+    private void publishSync(final String channel, final byte[] payload) {
+        if (this.claimCheck.isClaimable(payload)) {
+            this.claimCheck.publish(channel, payload);
+            return;
+        }
+        this.connection.sync().publish(channel, payload);
+    }
+
+    /**
+     * Fetches the body of a message stored by a claim check.
+     *
+     * @param hash the hash of the body, as carried by the reference frame
+     * @return a stage completed with the compressed body, or null if it has expired
+     * @throws IllegalArgumentException if the hash is malformed
+     */
+    CompletionStage<byte[]> fetchClaim(final String hash) {
+        return this.claimCheck.fetch(hash);
+    }
+
+    /**
+     * Encodes a message into the payload published on Redis.
+     * Messages without a routing key, a format or an id are only compressed, so that they stay readable by any subscriber,
+     * unless they start like a frame; the others are wrapped in a frame whose header is left uncompressed.
+     *
+     * @param key     the routing key, or null
+     * @param format  the id of the serializer the message was encoded with, or 0
+     * @param message the message
+     * @return the encoded payload
+     */
+    byte[] encode(final String key, final byte format, final byte[] message) {
+        return this.encode(key, format, this.nextMessageId(), message);
+    }
+
+    /**
+     * Encodes a message stamped with the given id into the payload published on Redis.
+     *
+     * @param key     the routing key, or null
+     * @param format  the id of the serializer the message was encoded with, or 0
+     * @param id      the id of the message, or 0
+     * @param message the message
+     * @return the encoded payload
+     */
+    private byte[] encode(final String key, final byte format, final long id, final byte[] message) {
+        final byte[] body = this.compress(message);
+        final boolean hasKey = key != null && !key.isEmpty();
+        // A plain body that happens to start like a frame is wrapped in an empty one, so that receivers do not misread it.
+        if (!hasKey && format == 0 && id == 0 && !PatFrame.isFrame(body)) return body;
+
+        return PatFrame.encode((byte) 0, hasKey ? key : null, format, id, body);
+    }
+
+    /**
+     * Generates the id of a message, if message ids are enabled.
+     *
+     * @return a random non-zero id, or 0 if message ids are disabled
+     */
+    long nextMessageId() {
+        if (!this.messageIds) return 0;
+
+        long id;
+        do {
+            id = ThreadLocalRandom.current().nextLong();
+        } while (id == 0);
+        return id;
+    }
+
+    /**
+     * Records a received message and checks if it is a duplicate, if deduplication is enabled.
+     *
+     * @param channel the channel the message was received on
+     * @param id      the id of the message, or 0 to identify it by the hash of its payload
+     * @param payload the payload of the message
+     * @return true if the message is a duplicate, false otherwise
+     */
+    boolean isDuplicate(final String channel, final long id, final byte[] payload) {
+        if (this.deduplicator == null) return false;
+
+        return this.deduplicator.isDuplicate(channel, id != 0 ? id : PatDeduplicator.hash(payload));
+    }
+
+    /**
+     * Returns the serializer preferred for the objects sent and received by this client.
+     *
+     * @return the serializer, or null to look it up in the registry
+     */
+    PatSerializer serializer() {
+        return this.serializer;
+    }
+
+    /**
+     * Serializes an object and encodes it into the payload published on Redis.
+     *
+     * @param message the object to serialize
+     * @return the encoded payload
+     * @throws IllegalArgumentException if no serializer supports the type of the object
+     */
+    private byte[] serialize(final Object message) {
+        PatSerializer serializer = this.serializer;
+        if (serializer == null || !serializer.supports(message.getClass())) {
+            serializer = PatSerializers.forType(message.getClass());
+        }
+        if (serializer == null) {
+            throw new IllegalArgumentException("No serializer supports " + message.getClass().getName());
+        }
+
+        return this.encode(null, serializer.id(), serializer.serialize(message));
+    }
+
+    /**
+     * Compresses a message body, if compression is enabled.
+     *
+     * @param body the body to compress
+     * @return the compressed body, or the body itself if compression is disabled
+     */
+    byte[] compress(final byte[] body) {
+        return this.compressor != null ? this.compressor.compress(body) : body;
+    }
+
+    /**
+     * Decompresses the body found at the given offset of a payload, if compression is enabled.
+     *
+     * @param payload the payload containing the body
+     * @param offset  the offset of the body
+     * @return the decompressed body
+     */
+    byte[] decompress(final byte[] payload, final int offset) {
+        if (this.compressor != null) {
+            return this.compressor.decompress(payload, offset, payload.length - offset);
+        }
+        return offset == 0 ? payload : Arrays.copyOfRange(payload, offset, payload.length);
+    }
+
+    /**
+     * Checks if any registered listener is interested in a message published on the given channel and key.
+     *
+     * @param channel the channel the message was published to
+     * @param key     the routing key of the message, or null
+     * @return true if at least one listener would receive the message, false otherwise
+     */
+    boolean accepts(final String channel, final String key) {
+        for (final PatHandler handler : this.listeners.values()) {
+            if (handler.accepts(channel, key)) return true;
+        }
+        return false;
+    }
+
     /**
      * Subscribes to a Redis pub/sub channel.
      *
@@ -180,6 +640,34 @@ public final class Pat implements PatClient {
         this.connection.sync().unsubscribe(channel);
     }
 
+    /**
+     * Subscribes to the keyevent channels notifying an operation.
+     *
+     * @param operation the operation to be notified of
+     */
+    private void psubscribe(final PatKeyspaceOperation operation) {
+        this.connection.sync().psubscribe(PatKeyspaceIndex.channelPattern(operation));
+    }
+
+    /**
+     * Unsubscribes from the keyevent channels notifying an operation.
+     *
+     * @param operation the operation not to be notified of anymore
+     */
+    private void punsubscribe(final PatKeyspaceOperation operation) {
+        this.connection.sync().punsubscribe(PatKeyspaceIndex.channelPattern(operation));
+    }
+
+    /**
+     * Dispatches a keyspace notification to the interested listeners.
+     *
+     * @param channel the keyevent channel the notification was received on
+     * @param message the key the notification is about
+     */
+    void dispatchKeyspace(final String channel, final byte[] message) {
+        this.keyspace.dispatch(channel, message);
+    }
+
     /**
      * Broadcasts a PatEvent to all listeners.
      *
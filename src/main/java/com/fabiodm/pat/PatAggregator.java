@@ -0,0 +1,164 @@
+package com.fabiodm.pat;
+
+import com.fabiodm.pat.codec.PatFrame;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class packs the messages sent to the same channel within a short window into a single batch frame,
+ * so that Redis has to publish (and fan out) one message instead of many small ones.
+ */
+final class PatAggregator {
+
+    // The Pat object used to publish the frames.
+    private final Pat pat;
+
+    // The time a batch waits for other messages before being published.
+    private final long windowNanos;
+    // The size in bytes after which a batch is published without waiting for the window to end.
+    private final int maxFrameSize;
+
+    // The batches waiting to be published, one per channel.
+    private final Map<String, Batch> batches = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "pat-aggregator");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Constructs a PatAggregator publishing its frames through the given Pat object.
+     *
+     * @param pat          the Pat object to publish the frames with
+     * @param window       the time a batch waits for other messages
+     * @param maxFrameSize the size in bytes after which a batch is published immediately
+     */
+    PatAggregator(final Pat pat, final Duration window, final int maxFrameSize) {
+        this.pat = pat;
+        this.windowNanos = window.toNanos();
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    /**
+     * Adds a message to the batch of its channel.
+     * The returned stage is shared by every message of the batch and completes
+     * with the number of clients that received the frame.
+     *
+     * @param channel the channel to send the message to
+     * @param message the message
+     * @return a stage completed when the batch is published
+     */
+    CompletionStage<Long> add(final String channel, final byte[] message) {
+        final Batch[] created = new Batch[1];
+        final Batch[] full = new Batch[1];
+        final Batch batch = this.batches.compute(channel, (key, current) -> {
+            if (current == null) {
+                current = new Batch();
+                created[0] = current;
+            }
+
+            current.add(message);
+            if (current.size >= this.maxFrameSize) {
+                full[0] = current;
+                return null;
+            }
+            return current;
+        });
+
+        if (full[0] != null) {
+            this.publish(channel, full[0]);
+            return full[0].future;
+        }
+
+        // The window is scheduled outside of compute, which must not run code that can throw.
+        if (created[0] != null) {
+            try {
+                this.scheduler.schedule(() -> this.expire(channel, batch), this.windowNanos, TimeUnit.NANOSECONDS);
+            } catch (final RejectedExecutionException e) {
+                // The aggregator has been shut down, so the batch is published without waiting.
+                this.expire(channel, batch);
+            }
+        }
+        return batch.future;
+    }
+
+    /**
+     * Publishes every pending batch without waiting for its window to end.
+     *
+     * @return a future completed when every flushed batch has been published, or has failed to
+     */
+    CompletableFuture<Void> flush() {
+        final List<CompletableFuture<Long>> futures = new ArrayList<>();
+        for (final String channel : this.batches.keySet()) {
+            final Batch batch = this.batches.remove(channel);
+            if (batch != null) {
+                this.publish(channel, batch);
+                futures.add(batch.future);
+            }
+        }
+        return CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new));
+    }
+
+    /**
+     * Flushes the pending batches and stops the scheduler.
+     */
+    void shutdown() {
+        this.flush();
+        this.scheduler.shutdownNow();
+    }
+
+    private void expire(final String channel, final Batch batch) {
+        // The batch could have been published already because it reached the maximum size.
+        if (this.batches.remove(channel, batch)) {
+            this.publish(channel, batch);
+        }
+    }
+
+    private void publish(final String channel, final Batch batch) {
+        // A lone message goes through Pat#encode like any other send, which escapes raw payloads starting like a frame.
+        final byte[] payload = batch.messages.size() == 1
+                ? this.pat.encode(null, (byte) 0, batch.messages.get(0))
+                : PatFrame.encode(PatFrame.FLAG_BATCH, null, (byte) 0, this.pat.nextMessageId(),
+                this.pat.compress(PatFrame.encodeBatch(batch.messages, batch.size)));
+
+        try {
+            this.pat.publishAsync(channel, payload).whenComplete((receivers, throwable) -> {
+                if (throwable != null) {
+                    batch.future.completeExceptionally(throwable);
+                } else {
+                    batch.future.complete(receivers);
+                }
+            });
+        } catch (final RuntimeException e) {
+            Pat.LOGGER.error("An error occurred while publishing a batch on channel {}: ", channel, e);
+            batch.future.completeExceptionally(e);
+        }
+    }
+
+    /*
+     * The messages waiting to be published on a channel.
+     * It is only mutated inside ConcurrentHashMap#compute, which serializes the access.
+     */
+    private static final class Batch {
+
+        private final List<byte[]> messages = new ArrayList<>();
+        private final CompletableFuture<Long> future = new CompletableFuture<>();
+        private int size;
+
+        private void add(final byte[] message) {
+            this.messages.add(message);
+            this.size += message.length;
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package com.fabiodm.pat;
 
 import com.fabiodm.pat.api.PatClient;
+import com.fabiodm.pat.api.serializer.PatSerializer;
+import com.fabiodm.pat.handler.PatWatchdog;
 import io.lettuce.core.ClientOptions;
 import io.lettuce.core.RedisClient;
 import io.lettuce.core.RedisURI;
@@ -20,7 +22,23 @@ public final class PatBuilder {
     private RedisURI redisURI;
 
     private ClientOptions clientOptions;
-    private CompressionCodec.CompressionType compressionType;
+    CompressionCodec.CompressionType compressionType;
+
+    Duration aggregationWindow;
+    int maxFrameSize;
+
+    PatSerializer serializer;
+
+    PatOutbox outbox;
+    int maxInFlight;
+
+    PatWatchdog watchdog;
+
+    boolean messageIds;
+    PatDeduplicator deduplicator;
+
+    int claimThreshold = Integer.MAX_VALUE;
+    Duration claimTtl = Duration.ofMinutes(1);
 
     /**
      * Private constructor to prevent direct instantiation.
@@ -77,6 +95,122 @@ public final class PatBuilder {
         return this;
     }
 
+    /**
+     * Enables the aggregation of the messages sent with {@link PatClient#sendAggregated(String, byte[])}.
+     * The messages sent to the same channel within the window are packed into a single frame,
+     * which is published as soon as the window ends or the frame reaches the maximum size.
+     *
+     * @param window       the time a frame waits for other messages
+     * @param maxFrameSize the size in bytes after which a frame is published immediately
+     * @return the current PatBuilder instance
+     * @throws IllegalArgumentException if the window is not positive or the maximum size is not positive
+     */
+    public PatBuilder withAggregation(final Duration window, final int maxFrameSize) {
+        if (window.isNegative() || window.isZero() || maxFrameSize <= 0) {
+            throw new IllegalArgumentException("The aggregation window and the maximum frame size must be positive");
+        }
+
+        this.aggregationWindow = window;
+        this.maxFrameSize = maxFrameSize;
+        return this;
+    }
+
+    /**
+     * Sets the serializer used by {@link PatClient#send(String, Object)} for the types it supports.
+     * The receivers of this client also decode the messages carrying its id with it, instead of the serializer
+     * registered in {@link com.fabiodm.pat.api.serializer.PatSerializers} with the same id, which is left untouched.
+     * When not set, or for the types it does not support, the registered serializer with the highest precedence is used.
+     *
+     * @param serializer the serializer to use
+     * @return the current PatBuilder instance
+     */
+    public PatBuilder withSerializer(final PatSerializer serializer) {
+        this.serializer = serializer;
+        return this;
+    }
+
+    /**
+     * Enables the outbox: while the connection is down, or when more than the given number of
+     * asynchronous publishes are waiting for a reply, messages are appended to the outbox journal
+     * and replayed in order once the connection is available again. So are the asynchronous publishes that fail,
+     * and their futures complete with {@link PatOutbox#JOURNALED}.
+     * The outbox is closed when the Pat instance is shut down.
+     *
+     * @param outbox      the outbox to use
+     * @param maxInFlight the maximum number of asynchronous publishes waiting for a reply
+     * @return the current PatBuilder instance
+     * @throws IllegalArgumentException if the maximum number of publishes in flight is not positive
+     */
+    public PatBuilder withOutbox(final PatOutbox outbox, final int maxInFlight) {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("The maximum number of publishes in flight must be positive");
+        }
+
+        this.outbox = outbox;
+        this.maxInFlight = maxInFlight;
+        return this;
+    }
+
+    /**
+     * Sets the watchdog timing every subscription invocation against its budget.
+     * The events of a subscription quarantined on the slow lane are handled one at a time and in order,
+     * but on the threads of the slow lane, concurrently with the other subscriptions of the same listener.
+     * The watchdog is closed when the Pat instance is shut down.
+     *
+     * @param watchdog the watchdog to use
+     * @return the current PatBuilder instance
+     */
+    public PatBuilder withWatchdog(final PatWatchdog watchdog) {
+        this.watchdog = watchdog;
+        return this;
+    }
+
+    /**
+     * Stamps every message sent with a random 64-bit id, so that the receivers can recognize duplicates
+     * without hashing the payload. Messages with an id are always wrapped in a frame.
+     * A random id only recognizes the same publish delivered twice; to deduplicate a logical message
+     * published more than once, send it with its own id through {@link PatClient#send(String, long, byte[])}.
+     *
+     * @return the current PatBuilder instance
+     */
+    public PatBuilder withMessageIds() {
+        this.messageIds = true;
+        return this;
+    }
+
+    /**
+     * Sets the deduplicator dropping the messages received more than once before they reach the listeners.
+     * The deduplicator is closed when the Pat instance is shut down.
+     *
+     * @param deduplicator the deduplicator to use
+     * @return the current PatBuilder instance
+     */
+    public PatBuilder withDeduplication(final PatDeduplicator deduplicator) {
+        this.deduplicator = deduplicator;
+        return this;
+    }
+
+    /**
+     * Enables the claim check: the bodies of the messages whose encoded size exceeds the threshold
+     * are stored in a Redis key expiring after the TTL, and only a small reference is published.
+     * Receivers fetch the body only if one of their subscriptions accepts the message.
+     * The TTL must be long enough for every subscriber to fetch the body.
+     *
+     * @param threshold the size in bytes of the encoded messages above which the body is stored in a key
+     * @param ttl       the time the bodies are kept in Redis
+     * @return the current PatBuilder instance
+     * @throws IllegalArgumentException if the threshold or the TTL is not positive
+     */
+    public PatBuilder withClaimCheck(final int threshold, final Duration ttl) {
+        if (threshold <= 0 || ttl.toMillis() <= 0) {
+            throw new IllegalArgumentException("The claim check threshold and TTL must be positive");
+        }
+
+        this.claimThreshold = threshold;
+        this.claimTtl = ttl;
+        return this;
+    }
+
     /**
      * Builds a new Pat instance with the set RedisURI and ClientOptions.
      * If either RedisURI or ClientOptions is not set before calling this method, it throws an IllegalArgumentException.
@@ -86,13 +220,13 @@ public final class PatBuilder {
      */
     public PatClient build() {
         if (this.redisClient != null) {
-            return new Pat(this.redisClient, this.compressionType);
+            return new Pat(this.redisClient, this);
         }
 
         if (this.redisURI == null || this.clientOptions == null) {
             throw new IllegalArgumentException("RedisURI and ClientOptions must be set before building Pat otherwise you can use an existing RedisClient");
         }
 
-        return new Pat(this.redisURI, this.clientOptions, this.compressionType);
+        return new Pat(this.redisURI, this.clientOptions, this);
     }
 }
\ No newline at end of file
@@ -0,0 +1,200 @@
+package com.fabiodm.pat;
+
+import com.fabiodm.pat.codec.ByteArrayCodec;
+import com.fabiodm.pat.codec.PatFrame;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisFuture;
+import io.lettuce.core.api.StatefulRedisConnection;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * This class moves the bodies of large messages out of the pub/sub channels.
+ * A body larger than the threshold is stored in a Redis key expiring after the TTL, and only a frame
+ * referencing the key is published, so the pub/sub connection and the output buffers of the subscribers
+ * never carry it. Both commands are sent on a dedicated connection, and the reference is only published once
+ * the body has been stored, so small messages sent on the pub/sub connection do not wait behind large ones.
+ * <p>
+ * The keys are named after a SHA-256 hash of the body, and the frames only carry that hash, never a key name.
+ * The same body is therefore always published with the same reference, so the deduplicator recognizes
+ * a claimed message sent twice, or replayed from the outbox, like any other message.
+ * Receivers fetch the body on the same dedicated connection, only if one of their subscriptions accepts the message.
+ * The connection is opened and closed along with the pub/sub one, so that fetching never has to connect
+ * from the pub/sub I/O thread, where a blocking connect could wait on that very thread.
+ */
+final class PatClaimCheck {
+
+    // The prefix of the keys storing the bodies.
+    private static final String KEY_PREFIX = "pat:claim:";
+    // The length of the hexadecimal SHA-256 hashes naming the keys.
+    private static final int HASH_LENGTH = 64;
+
+    private final RedisClient redisClient;
+
+    // The size in bytes of the encoded payloads above which the body is stored in a key.
+    private final int threshold;
+    private final long ttlMillis;
+
+    // The connection storing and fetching the bodies, open while Pat is connected.
+    private volatile StatefulRedisConnection<String, byte[]> connection;
+
+    /**
+     * Constructs a PatClaimCheck using connections opened from the given Redis client.
+     *
+     * @param redisClient the Redis client to open the connection with
+     * @param threshold   the size in bytes of the encoded payloads above which the body is stored in a key
+     * @param ttl         the time the bodies are kept in Redis
+     */
+    PatClaimCheck(final RedisClient redisClient, final int threshold, final Duration ttl) {
+        this.redisClient = redisClient;
+        this.threshold = threshold;
+        this.ttlMillis = ttl.toMillis();
+    }
+
+    /**
+     * Checks if the body of the given payload should be stored in a key.
+     *
+     * @param payload the encoded payload
+     * @return true if the payload is larger than the threshold, false otherwise
+     */
+    boolean isClaimable(final byte[] payload) {
+        return payload.length > this.threshold;
+    }
+
+    /**
+     * Stores the body of a payload and publishes the reference to it synchronously.
+     *
+     * @param channel the channel to publish the reference to
+     * @param payload the encoded payload
+     */
+    void publish(final String channel, final byte[] payload) {
+        final StatefulRedisConnection<String, byte[]> connection = this.connection();
+        final PatFrame frame = PatFrame.decode(payload);
+        final byte[] body = body(payload, frame);
+        final String hash = hash(body);
+        connection.sync().psetex(KEY_PREFIX + hash, this.ttlMillis, body);
+        connection.sync().publish(channel, reference(frame, hash));
+    }
+
+    /**
+     * Stores the body of a payload and publishes the reference to it asynchronously.
+     * The reference is only published once the body has been stored.
+     *
+     * @param channel the channel to publish the reference to
+     * @param payload the encoded payload
+     * @return a {@link RedisFuture<Long>} completed with the number of clients that received the reference,
+     * or completed exceptionally if the body or the reference could not be sent
+     */
+    RedisFuture<Long> publishAsync(final String channel, final byte[] payload) {
+        final StatefulRedisConnection<String, byte[]> connection = this.connection();
+        final PatFrame frame = PatFrame.decode(payload);
+        final byte[] body = body(payload, frame);
+        final String hash = hash(body);
+
+        final PatFuture<Long> future = new PatFuture<>();
+        connection.async().psetex(KEY_PREFIX + hash, this.ttlMillis, body)
+                .thenCompose(reply -> connection.async().publish(channel, reference(frame, hash)))
+                .whenComplete((receivers, throwable) -> {
+                    if (throwable != null) {
+                        future.completeExceptionally(throwable);
+                    } else {
+                        future.complete(receivers);
+                    }
+                });
+        return future;
+    }
+
+    /**
+     * Fetches a stored body.
+     *
+     * @param hash the hash of the body, as carried by the reference frame
+     * @return a stage completed with the compressed body, or null if it has expired
+     * @throws IllegalArgumentException if the hash is malformed, so that frames cannot make receivers read other keys
+     */
+    CompletionStage<byte[]> fetch(final String hash) {
+        if (!isHash(hash)) {
+            throw new IllegalArgumentException("Malformed claim check reference");
+        }
+
+        final StatefulRedisConnection<String, byte[]> connection = this.connection;
+        if (connection == null) {
+            return CompletableFuture.failedFuture(new IllegalStateException("The claim check connection is closed"));
+        }
+        return connection.async().get(KEY_PREFIX + hash);
+    }
+
+    /**
+     * Opens the connection, if it is not already open.
+     * It must be called outside of the Lettuce I/O threads, since connecting blocks until Redis replies.
+     */
+    synchronized void open() {
+        if (this.connection == null) {
+            this.connection = this.redisClient.connect(new ByteArrayCodec());
+        }
+    }
+
+    /**
+     * Closes the connection, if it has been opened.
+     */
+    synchronized void close() {
+        if (this.connection != null) {
+            this.connection.close();
+            this.connection = null;
+        }
+    }
+
+    private StatefulRedisConnection<String, byte[]> connection() {
+        final StatefulRedisConnection<String, byte[]> connection = this.connection;
+        if (connection == null) {
+            throw new IllegalStateException("The claim check connection is closed");
+        }
+        return connection;
+    }
+
+    /*
+     * Returns the SHA-256 hash of a body, as lowercase hexadecimal.
+     */
+    private static String hash(final byte[] body) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(body));
+        } catch (final NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static boolean isHash(final String hash) {
+        if (hash.length() != HASH_LENGTH) return false;
+
+        for (int i = 0; i < hash.length(); i++) {
+            final char c = hash.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) return false;
+        }
+        return true;
+    }
+
+    /*
+     * Returns the body of an encoded payload, without the frame header if it has one.
+     */
+    private static byte[] body(final byte[] payload, final PatFrame frame) {
+        return frame == null ? payload : Arrays.copyOfRange(payload, frame.bodyOffset(), payload.length);
+    }
+
+    /*
+     * Returns the frame referencing the hash of the body, keeping the header of the original payload.
+     */
+    private static byte[] reference(final PatFrame frame, final String hash) {
+        final byte[] body = hash.getBytes(StandardCharsets.US_ASCII);
+        if (frame == null) {
+            return PatFrame.encode(PatFrame.FLAG_CLAIM, null, (byte) 0, body);
+        }
+        return PatFrame.encode((byte) (frame.flags() | PatFrame.FLAG_CLAIM), frame.key(), frame.format(), frame.id(), body);
+    }
+}
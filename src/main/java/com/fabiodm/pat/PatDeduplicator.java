@@ -0,0 +1,211 @@
+package com.fabiodm.pat;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class drops the messages received more than once within a time window, before they reach the listeners.
+ * Messages are identified by the id stamped by the publisher (see {@link PatBuilder#withMessageIds()}),
+ * or by a 64-bit hash of their payload if they have none: without ids, two messages with the same payload
+ * sent on the same channel within the window are considered duplicates.
+ * <p>
+ * The seen messages are remembered in a ring of three Bloom filters sharing the configured memory:
+ * messages are added to the current filter and looked up in the current and previous ones,
+ * and every window the oldest filter is cleared in the background and becomes the current one.
+ * A message is therefore remembered for at least one window and at most two.
+ * The hot path never locks, it only reads and sets bits with compare-and-set. Being probabilistic,
+ * a small fraction of unique messages may be mistaken for duplicates, depending on the memory given
+ * to the filters and the number of messages received per window.
+ */
+public final class PatDeduplicator implements AutoCloseable {
+
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private static final long C1 = 0x9E3779B97F4A7C15L;
+    private static final long C2 = 0xC2B2AE3D27D4EB4FL;
+
+    // The number of filters in the ring: the current one, the previous one and the one being cleared.
+    private static final int FILTERS = 3;
+    private static final int MAX_HASHES = 16;
+
+    private final AtomicLongArray[] filters = new AtomicLongArray[FILTERS];
+    // The mask selecting a bit in a filter, whose size is a power of two.
+    private final long bitMask;
+    // The number of bits set for every message.
+    private final int hashes;
+
+    // The index of the current filter, the previous one precedes it in the ring.
+    private volatile int generation;
+
+    private final Map<String, LongAdder> duplicates = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService rotator = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "pat-deduplicator");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Constructs a PatDeduplicator remembering the messages received within the given window.
+     *
+     * @param window           the time a message is remembered for, at least
+     * @param memoryBytes      the memory shared by the filters
+     * @param expectedMessages the number of messages expected within a window, used to tune the filters
+     * @throws IllegalArgumentException if the window is not positive, or the memory is less than 1 KiB
+     */
+    public PatDeduplicator(final Duration window, final long memoryBytes, final int expectedMessages) {
+        if (window.isNegative() || window.isZero()) {
+            throw new IllegalArgumentException("The deduplication window must be positive");
+        }
+        if (memoryBytes < 1024) {
+            throw new IllegalArgumentException("The deduplicator needs at least 1 KiB of memory");
+        }
+
+        // Every filter gets the largest power of two of longs fitting in its share of the memory.
+        final long words = Long.highestOneBit(Math.min(memoryBytes / FILTERS / Long.BYTES, 1 << 30));
+        for (int i = 0; i < FILTERS; i++) {
+            this.filters[i] = new AtomicLongArray((int) words);
+        }
+        this.bitMask = words * Long.SIZE - 1;
+
+        // The optimal number of bits per message is (bits / messages) * ln 2.
+        final double bitsPerMessage = (double) (words * Long.SIZE) / Math.max(1, expectedMessages);
+        this.hashes = (int) Math.max(1, Math.min(MAX_HASHES, Math.round(bitsPerMessage * Math.log(2))));
+
+        final long period = window.toNanos();
+        this.rotator.scheduleAtFixedRate(this::rotate, period, period, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the number of duplicates dropped on the given channel.
+     *
+     * @param channel the channel
+     * @return the number of duplicates dropped
+     */
+    public long getDuplicates(final String channel) {
+        final LongAdder counter = this.duplicates.get(channel);
+        return counter != null ? counter.sum() : 0;
+    }
+
+    /**
+     * Returns the number of duplicates dropped on every channel that received at least one.
+     *
+     * @return a snapshot of the duplicate counters by channel
+     */
+    public Map<String, Long> getDuplicates() {
+        final Map<String, Long> snapshot = new HashMap<>();
+        this.duplicates.forEach((channel, counter) -> snapshot.put(channel, counter.sum()));
+        return snapshot;
+    }
+
+    /**
+     * Returns the memory used by the filters.
+     *
+     * @return the memory used in bytes
+     */
+    public long getMemoryBytes() {
+        return (long) FILTERS * this.filters[0].length() * Long.BYTES;
+    }
+
+    /**
+     * Stops the rotation of the filters.
+     */
+    @Override
+    public void close() {
+        this.rotator.shutdownNow();
+    }
+
+    /**
+     * Records a message and checks if it was already received on the same channel.
+     *
+     * @param channel     the channel the message was received on
+     * @param fingerprint the id of the message, or the hash of its payload
+     * @return true if the message is a duplicate, false otherwise
+     */
+    boolean isDuplicate(final String channel, final long fingerprint) {
+        final long h1 = mix(fingerprint ^ channel.hashCode() * C1);
+        final long h2 = mix(h1 ^ C2) | 1;
+
+        final int generation = this.generation;
+        final AtomicLongArray current = this.filters[generation];
+        final AtomicLongArray previous = this.filters[(generation + FILTERS - 1) % FILTERS];
+
+        boolean seen = true;
+        boolean seenBefore = true;
+        for (int i = 0; i < this.hashes; i++) {
+            final long bit = (h1 + i * h2) & this.bitMask;
+            final int index = (int) (bit >>> 6);
+            final long mask = 1L << bit;
+
+            if (seenBefore && (previous.get(index) & mask) == 0) {
+                seenBefore = false;
+            }
+            if ((current.get(index) & mask) == 0 && (current.getAndAccumulate(index, mask, (a, b) -> a | b) & mask) == 0) {
+                seen = false;
+            }
+        }
+
+        if (seen || seenBefore) {
+            this.duplicates.computeIfAbsent(channel, key -> new LongAdder()).increment();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Hashes a payload into a 64-bit fingerprint.
+     *
+     * @param payload the payload to hash
+     * @return the fingerprint of the payload
+     */
+    static long hash(final byte[] payload) {
+        long hash = C2 ^ payload.length;
+        int offset = 0;
+        for (; offset + Long.BYTES <= payload.length; offset += Long.BYTES) {
+            hash = Long.rotateLeft(hash ^ mix((long) LONGS.get(payload, offset)), 27) * C1;
+        }
+
+        long tail = 0;
+        for (int shift = 0; offset < payload.length; offset++, shift += 8) {
+            tail |= (payload[offset] & 0xFFL) << shift;
+        }
+        return mix(hash ^ mix(tail));
+    }
+
+    /*
+     * Advances the ring: the filter cleared during the last rotation becomes the current one,
+     * and the oldest filter is cleared for the next rotation.
+     */
+    private void rotate() {
+        final int next = (this.generation + 1) % FILTERS;
+        this.generation = next;
+
+        // The next write of the generation publishes the cleared words to the threads using the filter.
+        final AtomicLongArray oldest = this.filters[(next + 1) % FILTERS];
+        for (int i = 0; i < oldest.length(); i++) {
+            oldest.setPlain(i, 0);
+        }
+    }
+
+    /*
+     * The finalizer of MurmurHash3, spreading every input bit over the output.
+     */
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xFF51AFD7ED558CCDL;
+        value ^= value >>> 33;
+        value *= 0xC4CEB9FE1A85EC53L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
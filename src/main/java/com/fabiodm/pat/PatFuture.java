@@ -0,0 +1,45 @@
+package com.fabiodm.pat;
+
+import io.lettuce.core.RedisFuture;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * This class is a {@link RedisFuture} completed by Pat itself, for the sends whose result
+ * does not come from a single Redis command, such as the messages appended to the outbox
+ * or the bodies stored by a claim check before their reference is published.
+ *
+ * @param <V> the type of the result
+ */
+final class PatFuture<V> extends CompletableFuture<V> implements RedisFuture<V> {
+
+    @Override
+    public String getError() {
+        if (!this.isCompletedExceptionally()) return null;
+
+        try {
+            this.join();
+            return null;
+        } catch (final CompletionException | CancellationException e) {
+            final Throwable cause = e.getCause() != null ? e.getCause() : e;
+            return cause.getMessage();
+        }
+    }
+
+    @Override
+    public boolean await(final long timeout, final TimeUnit unit) throws InterruptedException {
+        try {
+            this.get(timeout, unit);
+        } catch (final ExecutionException | CancellationException e) {
+            return true;
+        } catch (final TimeoutException e) {
+            return false;
+        }
+        return true;
+    }
+}
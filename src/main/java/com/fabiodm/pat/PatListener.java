@@ -1,8 +1,11 @@
 package com.fabiodm.pat;
 
 import com.fabiodm.pat.api.event.PatEvent;
+import com.fabiodm.pat.codec.PatFrame;
 import io.lettuce.core.pubsub.RedisPubSubListener;
 
+import java.nio.charset.StandardCharsets;
+
 /**
  * This class implements the RedisPubSubListener interface for handling Redis pub/sub messages.
  * It holds a reference to a Pat object and overrides the methods of the RedisPubSubListener interface.
@@ -24,17 +27,101 @@ final class PatListener implements RedisPubSubListener<String, byte[]> {
     /**
      * Handles a message from a Redis pub/sub channel.
      * It creates a new PatEvent with the channel and message and broadcasts it to the Pat object.
+     * Frames published with a routing key nobody is subscribed to are discarded before their body is decompressed,
+     * and batch frames are unpacked so that every message they contain is broadcast as its own PatEvent.
+     * Every payload starting like a frame is read as one: Pat wraps the plain messages that do in a frame without flags.
+     * If deduplication is enabled, duplicates are discarded before being decompressed, except for the messages of a batch,
+     * which are checked one by one once the batch has been decompressed and unpacked.
+     * The bodies stored by a claim check are only fetched if a subscription accepts the message.
      *
      * @param channel the channel the message was published to
      * @param message the message
      */
     @Override
     public void message(final String channel, final byte[] message) {
-        this.pat.broadcast(new PatEvent(channel, message));
+        try {
+            final PatFrame frame = PatFrame.decode(message);
+            if (frame == null) {
+                if (this.pat.isDuplicate(channel, 0, message)) return;
+
+                this.pat.broadcast(new PatEvent(channel, null, (byte) 0, this.pat.decompress(message, 0), this.pat.serializer()));
+                return;
+            }
+
+            if (!this.pat.accepts(channel, frame.key())) return;
+            if (!frame.hasFlag(PatFrame.FLAG_BATCH) && this.pat.isDuplicate(channel, frame.id(), message)) return;
+
+            if (frame.hasFlag(PatFrame.FLAG_CLAIM)) {
+                final int offset = frame.bodyOffset();
+                this.fetchClaim(channel, frame, new String(message, offset, message.length - offset, StandardCharsets.US_ASCII));
+                return;
+            }
+
+            this.dispatch(channel, frame, message, frame.bodyOffset());
+        } catch (final IllegalArgumentException | IllegalStateException e) {
+            Pat.LOGGER.error("Discarding a malformed message received on channel {}: ", channel, e);
+        }
+    }
+
+    /*
+     * Decompresses the body of a frame found at the given offset of the payload and broadcasts its messages.
+     */
+    private void dispatch(final String channel, final PatFrame frame, final byte[] payload, final int offset) {
+        if (!frame.hasFlag(PatFrame.FLAG_BATCH)) {
+            this.pat.broadcast(new PatEvent(channel, frame.key(), frame.format(),
+                    this.pat.decompress(payload, offset), this.pat.serializer()));
+            return;
+        }
+
+        // The messages of a batch derive their ids from the id of the frame.
+        final long[] id = {frame.id()};
+        PatFrame.decodeBatch(this.pat.decompress(payload, offset), unpacked -> {
+            if (id[0] != 0) id[0]++;
+            if (this.pat.isDuplicate(channel, id[0], unpacked)) return;
+
+            this.pat.broadcast(new PatEvent(channel, frame.key(), frame.format(), unpacked, this.pat.serializer()));
+        });
     }
 
+    /*
+     * Fetches the body of a frame stored by a claim check and broadcasts its messages.
+     * The event is broadcast from the thread completing the fetch, and its body is only decompressed once read.
+     */
+    private void fetchClaim(final String channel, final PatFrame frame, final String hash) {
+        this.pat.fetchClaim(hash).whenComplete((body, throwable) -> {
+            if (throwable != null) {
+                Pat.LOGGER.error("Could not fetch the body of a message received on channel {}: ", channel, throwable);
+                return;
+            }
+            if (body == null) {
+                Pat.LOGGER.warn("Discarding a message received on channel {}, its body {} has expired", channel, hash);
+                return;
+            }
+
+            try {
+                if (frame.hasFlag(PatFrame.FLAG_BATCH)) {
+                    this.dispatch(channel, frame, body, 0);
+                } else {
+                    this.pat.broadcast(new PatEvent(channel, frame.key(), frame.format(),
+                            () -> this.pat.decompress(body, 0), this.pat.serializer()));
+                }
+            } catch (final RuntimeException e) {
+                Pat.LOGGER.error("An error occurred while handling a message received on channel {}: ", channel, e);
+            }
+        });
+    }
+
+    /**
+     * Handles a message from a Redis pub/sub pattern.
+     * Pat only subscribes to patterns to receive keyspace notifications, whose messages are never compressed.
+     *
+     * @param pattern the pattern the channel matched
+     * @param channel the channel the message was published to
+     * @param message the message
+     */
     @Override
     public void message(final String pattern, final String channel, final byte[] message) {
+        this.pat.dispatchKeyspace(channel, message);
     }
 
     @Override
@@ -0,0 +1,532 @@
+package com.fabiodm.pat;
+
+import com.fabiodm.pat.api.PatClient;
+import com.fabiodm.pat.codec.ByteArrayCodec;
+import com.fabiodm.pat.codec.PatFrame;
+import io.lettuce.core.RedisChannelHandler;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisConnectionStateListener;
+import io.lettuce.core.RedisException;
+import io.lettuce.core.TrackingArgs;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.push.PushListener;
+import io.lettuce.core.api.push.PushMessage;
+import io.lettuce.core.pubsub.RedisPubSubAdapter;
+import io.lettuce.core.pubsub.StatefulRedisPubSubConnection;
+
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * This class is a bounded local cache of Redis keys, kept consistent with Redis by invalidation messages.
+ * Values are read through a dedicated connection opened from the Redis client of a {@link PatClient},
+ * and the least recently used entries are evicted once the cache is full.
+ * <p>
+ * The invalidations are received in one of two ways:
+ * <ul>
+ *     <li>RESP3 client-side caching: the connection enables {@code CLIENT TRACKING} in broadcasting mode for
+ *     the configured key prefixes, and Redis pushes an invalidation whenever one of those keys is modified.
+ *     No cooperation from the writers is needed.</li>
+ *     <li>An invalidation channel: the writers call {@link #invalidate(Collection)} after modifying the keys,
+ *     and the keys are published as a compact batch of length-prefixed strings.</li>
+ * </ul>
+ * The invalidations are queued when received and applied in batches, either before the next read or once enough
+ * of them are pending, so that the thread delivering them never waits for the readers.
+ * A value read while one of its invalidations is received is not cached, and the whole cache is cleared
+ * whenever a connection is lost, since the invalidations sent in the meantime are lost as well.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ */
+public final class PatNearCache<K, V> implements AutoCloseable {
+
+    // The default maximum number of entries.
+    public static final int DEFAULT_MAXIMUM_SIZE = 10_000;
+
+    private final RedisClient redisClient;
+    private final Function<K, String> keyMapper;
+    private final Function<byte[], V> decoder;
+    private final String[] prefixes;
+    private final String invalidationChannel;
+
+    // The cached values by Redis key, in access order, guarded by itself.
+    private final Map<String, V> entries;
+    // The keys invalidated but not yet removed from the entries.
+    private final Queue<String> pendingInvalidations = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final AtomicBoolean pendingFlush = new AtomicBoolean();
+    // The number of pending invalidations after which the receiving thread applies them itself.
+    private final int maxPending;
+    // The reads in progress by Redis key, removed when the key is invalidated so that the read is not cached.
+    private final Map<String, Object> loading = new ConcurrentHashMap<>();
+
+    private final StatefulRedisConnection<String, byte[]> connection;
+    // The connection receiving the invalidation channel, null if client-side caching is used.
+    private final StatefulRedisPubSubConnection<String, byte[]> invalidationConnection;
+    private final RedisConnectionStateListener stateListener = new StateListener();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private PatNearCache(final Builder<K, V> builder) {
+        this.redisClient = builder.client.getRedisClient();
+        this.keyMapper = builder.keyMapper;
+        this.decoder = builder.decoder;
+        this.prefixes = builder.prefixes;
+        this.invalidationChannel = builder.invalidationChannel;
+
+        final int maximumSize = builder.maximumSize;
+        this.maxPending = Math.max(64, maximumSize / 4);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, V> eldest) {
+                if (this.size() <= maximumSize) return false;
+
+                PatNearCache.this.evictions.increment();
+                return true;
+            }
+        };
+
+        this.redisClient.addListener(this.stateListener);
+        StatefulRedisPubSubConnection<String, byte[]> invalidationConnection = null;
+        this.connection = this.redisClient.connect(new ByteArrayCodec());
+        try {
+            if (this.invalidationChannel != null) {
+                invalidationConnection = this.redisClient.connectPubSub(new ByteArrayCodec());
+                invalidationConnection.addListener(new InvalidationListener());
+                invalidationConnection.sync().subscribe(this.invalidationChannel);
+            } else {
+                this.connection.addListener((PushListener) this::onPushMessage);
+                this.connection.sync().clientTracking(this.trackingArgs());
+            }
+        } catch (final RedisException e) {
+            this.redisClient.removeListener(this.stateListener);
+            this.connection.close();
+            if (invalidationConnection != null) {
+                invalidationConnection.close();
+            }
+            throw e;
+        }
+        this.invalidationConnection = invalidationConnection;
+    }
+
+    /**
+     * Creates a builder for a near cache reading its values through the Redis client of the given PatClient.
+     *
+     * @param client    the PatClient whose Redis client is used
+     * @param keyMapper the function mapping a key to the Redis key holding its value
+     * @param decoder   the function decoding the value stored in Redis
+     * @param <K>       the type of the keys
+     * @param <V>       the type of the values
+     * @return a new Builder instance
+     */
+    public static <K, V> Builder<K, V> builder(final PatClient client,
+                                               final Function<K, String> keyMapper,
+                                               final Function<byte[], V> decoder) {
+        return new Builder<>(client, keyMapper, decoder);
+    }
+
+    /**
+     * Gets the value of a key, reading it from Redis and caching it if it is not cached yet.
+     * Missing keys are not cached.
+     *
+     * @param key the key
+     * @return the value, or null if the key does not exist
+     * @throws RedisException if the value cannot be read from Redis
+     */
+    public V get(final K key) {
+        final String redisKey = this.keyMapper.apply(key);
+        final V cached = this.lookup(redisKey);
+        if (cached != null) return cached;
+
+        final Object token = new Object();
+        this.loading.put(redisKey, token);
+        try {
+            return this.load(redisKey, token, this.connection.sync().get(redisKey));
+        } catch (final RuntimeException e) {
+            this.loading.remove(redisKey, token);
+            throw e;
+        }
+    }
+
+    /**
+     * Gets the value of a key asynchronously, like {@link #get(Object)}.
+     * The value is decoded on the thread completing the read.
+     *
+     * @param key the key
+     * @return a {@link CompletableFuture<V>} completed with the value, or null if the key does not exist
+     */
+    public CompletableFuture<V> getAsync(final K key) {
+        final String redisKey = this.keyMapper.apply(key);
+        final V cached = this.lookup(redisKey);
+        if (cached != null) return CompletableFuture.completedFuture(cached);
+
+        final Object token = new Object();
+        this.loading.put(redisKey, token);
+        return this.connection.async().get(redisKey)
+                .thenApply(bytes -> this.load(redisKey, token, bytes))
+                // Covers both a failed read and a decoder throwing, which would otherwise leave the token behind.
+                .whenComplete((value, throwable) -> {
+                    if (throwable != null) {
+                        this.loading.remove(redisKey, token);
+                    }
+                })
+                .toCompletableFuture();
+    }
+
+    /**
+     * Removes the given key from this cache and, if the invalidation channel is used,
+     * from the caches of the other clients. It should be called after the key has been modified in Redis.
+     *
+     * @param key the key to invalidate
+     */
+    public void invalidate(final K key) {
+        this.invalidate(List.of(key));
+    }
+
+    /**
+     * Removes the given keys from this cache and, if the invalidation channel is used,
+     * from the caches of the other clients. It should be called after the keys have been modified in Redis.
+     * With client-side caching the other clients are notified by Redis itself.
+     *
+     * @param keys the keys to invalidate
+     */
+    public void invalidate(final Collection<K> keys) {
+        final List<byte[]> redisKeys = new ArrayList<>(keys.size());
+        int size = 0;
+        for (final K key : keys) {
+            final String redisKey = this.keyMapper.apply(key);
+            this.enqueue(redisKey);
+
+            final byte[] bytes = redisKey.getBytes(StandardCharsets.UTF_8);
+            redisKeys.add(bytes);
+            size += bytes.length;
+        }
+        this.drain();
+
+        if (this.invalidationChannel != null && !redisKeys.isEmpty()) {
+            this.connection.async().publish(this.invalidationChannel, PatFrame.encodeBatch(redisKeys, size));
+        }
+    }
+
+    /**
+     * Clears this cache and, if the invalidation channel is used, the caches of the other clients.
+     */
+    public void invalidateAll() {
+        this.flush();
+        if (this.invalidationChannel != null) {
+            // An empty batch asks the receivers to clear their whole cache.
+            this.connection.async().publish(this.invalidationChannel, PatFrame.encodeBatch(List.of(), 0));
+        }
+    }
+
+    /**
+     * Returns the number of cached entries.
+     *
+     * @return the number of cached entries
+     */
+    public int size() {
+        this.drain();
+        synchronized (this.entries) {
+            return this.entries.size();
+        }
+    }
+
+    /**
+     * Returns the number of reads served from this cache.
+     *
+     * @return the number of hits
+     */
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    /**
+     * Returns the number of reads that had to go to Redis.
+     *
+     * @return the number of misses
+     */
+    public long getMisses() {
+        return this.misses.sum();
+    }
+
+    /**
+     * Returns the ratio between the hits and all the reads.
+     *
+     * @return the hit rate, between 0 and 1
+     */
+    public double getHitRate() {
+        final long hits = this.hits.sum();
+        final long total = hits + this.misses.sum();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * Returns the number of keys invalidated, cached or not, plus the number of times the whole cache was cleared.
+     *
+     * @return the number of invalidations
+     */
+    public long getInvalidations() {
+        return this.invalidations.sum();
+    }
+
+    /**
+     * Returns the number of entries evicted because the cache was full.
+     *
+     * @return the number of evictions
+     */
+    public long getEvictions() {
+        return this.evictions.sum();
+    }
+
+    /**
+     * Closes the connections of this cache and clears it.
+     * The Redis client is not closed, since it is owned by the PatClient.
+     */
+    @Override
+    public void close() {
+        this.redisClient.removeListener(this.stateListener);
+        this.connection.close();
+        if (this.invalidationConnection != null) {
+            this.invalidationConnection.close();
+        }
+        this.flush();
+    }
+
+    private V lookup(final String redisKey) {
+        this.drain();
+        synchronized (this.entries) {
+            final V value = this.entries.get(redisKey);
+            if (value != null) {
+                this.hits.increment();
+                return value;
+            }
+        }
+        this.misses.increment();
+        return null;
+    }
+
+    private V load(final String redisKey, final Object token, final byte[] bytes) {
+        if (bytes == null) {
+            this.loading.remove(redisKey, token);
+            return null;
+        }
+
+        final V value = this.decoder.apply(bytes);
+        synchronized (this.entries) {
+            // The token is gone if the key was invalidated while it was being read.
+            if (this.loading.remove(redisKey, token)) {
+                this.entries.put(redisKey, value);
+            }
+        }
+        return value;
+    }
+
+    private TrackingArgs trackingArgs() {
+        final TrackingArgs args = TrackingArgs.Builder.enabled().bcast();
+        return this.prefixes.length > 0 ? args.prefixes(this.prefixes) : args;
+    }
+
+    private void onPushMessage(final PushMessage message) {
+        if (!"invalidate".equals(message.getType())) return;
+
+        final List<Object> content = message.getContent(buffer -> StandardCharsets.UTF_8.decode(buffer).toString());
+        if (content.size() < 2 || !(content.get(1) instanceof List<?> keys)) {
+            // A null list of keys means that the whole keyspace was flushed.
+            this.flush();
+            return;
+        }
+
+        for (final Object key : keys) {
+            this.enqueue(key instanceof ByteBuffer buffer ? StandardCharsets.UTF_8.decode(buffer).toString() : String.valueOf(key));
+        }
+        this.drainIfBacklogged();
+    }
+
+    /*
+     * Records an invalidation. The pending read of the key, if any, is cancelled right away,
+     * while the entry is removed by the next batch.
+     */
+    private void enqueue(final String redisKey) {
+        this.loading.remove(redisKey);
+        this.pendingInvalidations.add(redisKey);
+        this.pendingCount.incrementAndGet();
+        this.invalidations.increment();
+    }
+
+    private void flush() {
+        this.loading.clear();
+        this.pendingFlush.set(true);
+        this.invalidations.increment();
+        this.drain();
+    }
+
+    private void drainIfBacklogged() {
+        if (this.pendingCount.get() >= this.maxPending) {
+            this.drain();
+        }
+    }
+
+    /*
+     * Applies the pending invalidations in a single batch.
+     */
+    private void drain() {
+        if (this.pendingCount.get() == 0 && !this.pendingFlush.get()) return;
+
+        synchronized (this.entries) {
+            if (this.pendingFlush.getAndSet(false)) {
+                this.entries.clear();
+            }
+
+            String redisKey;
+            while ((redisKey = this.pendingInvalidations.poll()) != null) {
+                this.pendingCount.decrementAndGet();
+                this.entries.remove(redisKey);
+            }
+        }
+    }
+
+    /*
+     * Receives the invalidations published on the invalidation channel.
+     */
+    private final class InvalidationListener extends RedisPubSubAdapter<String, byte[]> {
+
+        @Override
+        public void message(final String channel, final byte[] message) {
+            if (!channel.equals(PatNearCache.this.invalidationChannel)) return;
+
+            try {
+                final boolean[] empty = {true};
+                PatFrame.decodeBatch(message, key -> {
+                    empty[0] = false;
+                    PatNearCache.this.enqueue(new String(key, StandardCharsets.UTF_8));
+                });
+
+                if (empty[0]) {
+                    PatNearCache.this.flush();
+                } else {
+                    PatNearCache.this.drainIfBacklogged();
+                }
+            } catch (final IllegalArgumentException e) {
+                Pat.LOGGER.error("Received a malformed invalidation on channel {}: ", channel, e);
+            }
+        }
+    }
+
+    /*
+     * Clears the cache whenever one of its connections is lost or established again,
+     * and enables client-side caching again on the new connection.
+     */
+    private final class StateListener implements RedisConnectionStateListener {
+
+        @Override
+        public void onRedisConnected(final RedisChannelHandler<?, ?> connection, final SocketAddress socketAddress) {
+            if (connection == PatNearCache.this.connection && PatNearCache.this.invalidationChannel == null) {
+                PatNearCache.this.flush();
+                PatNearCache.this.connection.async().clientTracking(PatNearCache.this.trackingArgs());
+            } else if (this.isOwn(connection)) {
+                PatNearCache.this.flush();
+            }
+        }
+
+        @Override
+        public void onRedisDisconnected(final RedisChannelHandler<?, ?> connection) {
+            if (this.isOwn(connection)) {
+                PatNearCache.this.flush();
+            }
+        }
+
+        private boolean isOwn(final RedisChannelHandler<?, ?> connection) {
+            return connection == PatNearCache.this.connection || connection == PatNearCache.this.invalidationConnection;
+        }
+    }
+
+    /**
+     * This class builds PatNearCache instances.
+     *
+     * @param <K> the type of the keys
+     * @param <V> the type of the values
+     */
+    public static final class Builder<K, V> {
+
+        private final PatClient client;
+        private final Function<K, String> keyMapper;
+        private final Function<byte[], V> decoder;
+
+        private int maximumSize = DEFAULT_MAXIMUM_SIZE;
+        private String[] prefixes = new String[0];
+        private String invalidationChannel;
+
+        private Builder(final PatClient client, final Function<K, String> keyMapper, final Function<byte[], V> decoder) {
+            this.client = client;
+            this.keyMapper = keyMapper;
+            this.decoder = decoder;
+        }
+
+        /**
+         * Sets the maximum number of entries, after which the least recently used ones are evicted.
+         *
+         * @param maximumSize the maximum number of entries
+         * @return the current Builder instance
+         * @throws IllegalArgumentException if the size is not positive
+         */
+        public Builder<K, V> withMaximumSize(final int maximumSize) {
+            if (maximumSize <= 0) {
+                throw new IllegalArgumentException("The maximum size must be positive");
+            }
+
+            this.maximumSize = maximumSize;
+            return this;
+        }
+
+        /**
+         * Sets the prefixes of the keys Redis should send invalidations for when client-side caching is used.
+         * Without prefixes, Redis sends the invalidations of every key.
+         *
+         * @param prefixes the key prefixes
+         * @return the current Builder instance
+         */
+        public Builder<K, V> withPrefixes(final String... prefixes) {
+            this.prefixes = prefixes.clone();
+            return this;
+        }
+
+        /**
+         * Receives the invalidations from the given Pat channel instead of Redis client-side caching.
+         * Use it when the server does not support RESP3, or the writers prefer to invalidate explicitly.
+         *
+         * @param channel the invalidation channel
+         * @return the current Builder instance
+         */
+        public Builder<K, V> withInvalidationChannel(final String channel) {
+            this.invalidationChannel = channel;
+            return this;
+        }
+
+        /**
+         * Builds a new PatNearCache instance and opens its connections.
+         *
+         * @return a new PatNearCache instance
+         * @throws RedisException if the connections cannot be opened or client-side caching cannot be enabled
+         */
+        public PatNearCache<K, V> build() {
+            return new PatNearCache<>(this);
+        }
+    }
+}
@@ -0,0 +1,479 @@
+package com.fabiodm.pat;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+/**
+ * This class is a durable local outbox for the messages that cannot be published right away.
+ * When the connection is down, or too many asynchronous publishes are in flight, Pat appends the encoded
+ * messages to a journal of memory-mapped segment files instead of keeping them on the heap.
+ * Once the connection is back, the journal is replayed in order with pipelined publishes,
+ * and new messages keep going to the journal until it has been drained, so that the order is preserved.
+ * <p>
+ * The journal survives a crash of the process, and is replayed when an outbox is opened again on the same directory.
+ * The replay position is forced to disk after every replayed batch; the records themselves are written to the
+ * mapped segments, which the operating system keeps when the process crashes and forces to disk on its own schedule.
+ * Messages are delivered at least once: a message may be published again if the process stops during a replay.
+ * <p>
+ * The futures returned by the asynchronous sends of a message appended to the outbox complete with {@link #JOURNALED}
+ * instead of the number of clients that received it.
+ */
+public final class PatOutbox implements AutoCloseable {
+
+    // The default size of a segment file.
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    // The number of receivers reported for a message appended to the outbox, which is not known until it is replayed.
+    public static final long JOURNALED = -1;
+
+    private static final String SEGMENT_PREFIX = "outbox-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String CHECKPOINT_FILE = "outbox.checkpoint";
+
+    // The size of the record header: the record length and the channel length.
+    private static final int RECORD_HEADER = Integer.BYTES + Short.BYTES;
+    // The maximum number of records published by the replay before waiting for their replies.
+    private static final int REPLAY_BATCH = 512;
+
+    private final Path directory;
+    private final int segmentSize;
+
+    // The segments of the journal by id, guarded by this.
+    private final NavigableMap<Long, Segment> segments = new TreeMap<>();
+    // The segment the records are appended to, guarded by this.
+    private Segment writeSegment;
+
+    // The position of the first record not replayed yet, also persisted in the checkpoint file.
+    private long readSegment;
+    private int readOffset;
+    private final MappedByteBuffer checkpoint;
+    private final FileChannel checkpointChannel;
+
+    private final AtomicLong pendingRecords = new AtomicLong();
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private final LongAdder journaledRecords = new LongAdder();
+    private final LongAdder replayedRecords = new LongAdder();
+    private volatile double replayRate;
+
+    private Thread replayThread;
+    private volatile boolean closed;
+
+    private PatOutbox(final Path directory, final int segmentSize) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+
+        Files.createDirectories(directory);
+        this.checkpointChannel = FileChannel.open(directory.resolve(CHECKPOINT_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.checkpoint = this.checkpointChannel.map(FileChannel.MapMode.READ_WRITE, 0, Long.BYTES + Integer.BYTES);
+        this.readSegment = this.checkpoint.getLong(0);
+        this.readOffset = this.checkpoint.getInt(Long.BYTES);
+
+        this.recover();
+    }
+
+    /**
+     * Opens the outbox stored in the given directory, with segments of {@link #DEFAULT_SEGMENT_SIZE} bytes.
+     * The records left in the journal by a previous process are replayed once the outbox is used by Pat.
+     *
+     * @param directory the directory of the journal, created if missing
+     * @return the opened outbox
+     * @throws IOException if the journal cannot be opened
+     */
+    public static PatOutbox open(final Path directory) throws IOException {
+        return open(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens the outbox stored in the given directory.
+     * The records left in the journal by a previous process are replayed once the outbox is used by Pat.
+     *
+     * @param directory   the directory of the journal, created if missing
+     * @param segmentSize the size of the segment files, a record larger than this gets a segment of its own
+     * @return the opened outbox
+     * @throws IOException              if the journal cannot be opened
+     * @throws IllegalArgumentException if the segment size is too small
+     */
+    public static PatOutbox open(final Path directory, final int segmentSize) throws IOException {
+        if (segmentSize < 4096) {
+            throw new IllegalArgumentException("The segment size must be at least 4096 bytes");
+        }
+        return new PatOutbox(directory, segmentSize);
+    }
+
+    /**
+     * Returns the number of records waiting to be replayed.
+     *
+     * @return the number of pending records
+     */
+    public long getPendingRecords() {
+        return this.pendingRecords.get();
+    }
+
+    /**
+     * Returns the size in bytes of the records waiting to be replayed.
+     *
+     * @return the size of the pending records
+     */
+    public long getPendingBytes() {
+        return this.pendingBytes.get();
+    }
+
+    /**
+     * Returns the number of records appended to the journal since the outbox was opened.
+     *
+     * @return the number of journaled records
+     */
+    public long getJournaledRecords() {
+        return this.journaledRecords.sum();
+    }
+
+    /**
+     * Returns the number of records replayed since the outbox was opened.
+     *
+     * @return the number of replayed records
+     */
+    public long getReplayedRecords() {
+        return this.replayedRecords.sum();
+    }
+
+    /**
+     * Returns the number of records replayed per second, measured on the last replayed batch.
+     *
+     * @return the replay rate in records per second, or 0 if nothing is being replayed
+     */
+    public double getReplayRate() {
+        return this.pendingRecords.get() == 0 ? 0 : this.replayRate;
+    }
+
+    /**
+     * Checks if the journal contains records waiting to be replayed.
+     *
+     * @return true if there are pending records, false otherwise
+     */
+    boolean hasPending() {
+        return this.pendingRecords.get() > 0;
+    }
+
+    /**
+     * Appends an encoded message to the journal.
+     *
+     * @param channel the channel to publish the message to
+     * @param payload the encoded message
+     * @throws UncheckedIOException if a new segment cannot be created
+     */
+    synchronized void append(final String channel, final byte[] payload) {
+        if (this.closed) {
+            throw new IllegalStateException("The outbox is closed");
+        }
+
+        final byte[] channelBytes = channel.getBytes(StandardCharsets.UTF_8);
+        if (channelBytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("The channel name is too long to be journaled");
+        }
+
+        final int length = RECORD_HEADER + channelBytes.length + payload.length;
+        Segment segment = this.writeSegment;
+        // A record length of 0 marks the end of a segment, so there must be room for it after the record.
+        if (segment.position + length + Integer.BYTES > segment.buffer.capacity()) {
+            try {
+                segment = this.createSegment(segment.id + 1, Math.max(this.segmentSize, length + Integer.BYTES));
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        final ByteBuffer buffer = segment.buffer;
+        buffer.position(segment.position);
+        buffer.putInt(length - Integer.BYTES)
+                .putShort((short) channelBytes.length)
+                .put(channelBytes)
+                .put(payload);
+        segment.position += length;
+
+        this.journaledRecords.increment();
+        this.pendingBytes.addAndGet(length);
+        this.pendingRecords.incrementAndGet();
+    }
+
+    /**
+     * Starts replaying the journal through the given Pat object whenever it is connected.
+     *
+     * @param pat the Pat object to publish the records with
+     */
+    synchronized void start(final Pat pat) {
+        if (this.replayThread != null) {
+            throw new IllegalStateException("The outbox is already used by another Pat instance");
+        }
+
+        this.replayThread = new Thread(() -> this.replay(pat), "pat-outbox-replay");
+        this.replayThread.setDaemon(true);
+        this.replayThread.start();
+    }
+
+    /**
+     * Stops the replay and closes the journal files.
+     * The records not replayed yet stay in the journal and are replayed when the outbox is opened again.
+     */
+    @Override
+    public void close() {
+        final Thread thread;
+        synchronized (this) {
+            if (this.closed) return;
+
+            this.closed = true;
+            thread = this.replayThread;
+        }
+
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        synchronized (this) {
+            for (final Segment segment : this.segments.values()) {
+                segment.buffer.force();
+                this.closeQuietly(segment.channel);
+            }
+            this.checkpoint.force();
+            this.closeQuietly(this.checkpointChannel);
+        }
+    }
+
+    private void replay(final Pat pat) {
+        while (!this.closed) {
+            if (!pat.isConnected() || !this.hasPending()) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(50));
+                continue;
+            }
+
+            final Batch batch = this.read();
+            final long start = System.nanoTime();
+            try {
+                final CompletableFuture<?>[] futures = new CompletableFuture<?>[batch.channels.size()];
+                for (int i = 0; i < futures.length; i++) {
+                    futures[i] = pat.publishDirect(batch.channels.get(i), batch.payloads.get(i)).toCompletableFuture();
+                }
+                CompletableFuture.allOf(futures).get(30, TimeUnit.SECONDS);
+            } catch (final InterruptedException e) {
+                return;
+            } catch (final ExecutionException | TimeoutException | RuntimeException e) {
+                Pat.LOGGER.warn("Replaying the outbox failed, retrying: {}", e.toString());
+                LockSupport.parkNanos(TimeUnit.SECONDS.toNanos(1));
+                continue;
+            }
+
+            this.commit(batch);
+            this.replayRate = batch.channels.size() / Math.max((System.nanoTime() - start) / 1e9, 1e-6);
+        }
+    }
+
+    /*
+     * Reads the records following the replay position, without moving it.
+     */
+    private synchronized Batch read() {
+        final Batch batch = new Batch();
+        long segmentId = this.readSegment;
+        int offset = this.readOffset;
+
+        while (batch.channels.size() < REPLAY_BATCH) {
+            final Segment segment = this.segments.get(segmentId);
+            if (segment == null) break;
+
+            if (offset >= segment.position) {
+                // The write segment is the last one, so there is nothing else to read for now.
+                if (segment == this.writeSegment) break;
+
+                final Long next = this.segments.higherKey(segmentId);
+                if (next == null) break;
+
+                segmentId = next;
+                offset = 0;
+                continue;
+            }
+
+            final ByteBuffer buffer = segment.buffer.duplicate();
+            buffer.position(offset);
+            final int length = buffer.getInt();
+            final byte[] channel = new byte[Short.toUnsignedInt(buffer.getShort())];
+            buffer.get(channel);
+            final byte[] payload = new byte[length - Short.BYTES - channel.length];
+            buffer.get(payload);
+
+            batch.channels.add(new String(channel, StandardCharsets.UTF_8));
+            batch.payloads.add(payload);
+            batch.bytes += Integer.BYTES + length;
+            offset += Integer.BYTES + length;
+        }
+
+        batch.segment = segmentId;
+        batch.offset = offset;
+        return batch;
+    }
+
+    /*
+     * Moves the replay position after a replayed batch and deletes the segments that have been fully replayed.
+     */
+    private synchronized void commit(final Batch batch) {
+        this.readSegment = batch.segment;
+        this.readOffset = batch.offset;
+        this.checkpoint.putLong(0, this.readSegment).putInt(Long.BYTES, this.readOffset);
+        // Forced before deleting the segments, so that a restart never replays from a deleted segment.
+        this.checkpoint.force();
+
+        final Map<Long, Segment> replayed = this.segments.headMap(this.readSegment, false);
+        for (final Segment segment : replayed.values()) {
+            this.closeQuietly(segment.channel);
+            try {
+                Files.deleteIfExists(segment.path);
+            } catch (final IOException e) {
+                Pat.LOGGER.warn("Could not delete the replayed outbox segment {}: {}", segment.path, e.toString());
+            }
+        }
+        replayed.clear();
+
+        this.replayedRecords.add(batch.channels.size());
+        this.pendingRecords.addAndGet(-batch.channels.size());
+        this.pendingBytes.addAndGet(-batch.bytes);
+    }
+
+    /*
+     * Maps the segments left by a previous process and counts the records not replayed yet.
+     */
+    private void recover() throws IOException {
+        final List<Path> files;
+        try (Stream<Path> stream = Files.list(this.directory)) {
+            files = stream.filter(path -> {
+                final String name = path.getFileName().toString();
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }).toList();
+        }
+
+        for (final Path file : files) {
+            final String name = file.getFileName().toString();
+            final long id = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+            if (id < this.readSegment) {
+                // Replayed before the previous process could delete it.
+                Files.deleteIfExists(file);
+                continue;
+            }
+
+            final Segment segment = this.mapSegment(file, id, (int) Files.size(file));
+            segment.position = this.scan(segment, id == this.readSegment ? this.readOffset : 0);
+            this.segments.put(id, segment);
+        }
+
+        if (this.segments.isEmpty()) {
+            this.readOffset = 0;
+            this.createSegment(this.readSegment, this.segmentSize);
+        } else {
+            if (!this.segments.containsKey(this.readSegment)) {
+                this.readSegment = this.segments.firstKey();
+                this.readOffset = 0;
+            }
+            this.writeSegment = this.segments.lastEntry().getValue();
+        }
+        this.checkpoint.putLong(0, this.readSegment).putInt(Long.BYTES, this.readOffset);
+    }
+
+    /*
+     * Finds the end of the records of a segment, counting the ones after the given offset as pending.
+     */
+    private int scan(final Segment segment, final int from) {
+        final ByteBuffer buffer = segment.buffer.duplicate();
+        int position = 0;
+        while (position + Integer.BYTES <= buffer.capacity()) {
+            final int length = buffer.getInt(position);
+            if (length < Short.BYTES || position + Integer.BYTES + length > buffer.capacity()) break;
+
+            if (position >= from) {
+                this.pendingRecords.incrementAndGet();
+                this.pendingBytes.addAndGet(Integer.BYTES + length);
+            }
+            position += Integer.BYTES + length;
+        }
+        return position;
+    }
+
+    private Segment createSegment(final long id, final int size) throws IOException {
+        final Path path = this.directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+        final Segment segment = this.mapSegment(path, id, size);
+        this.segments.put(id, segment);
+        this.writeSegment = segment;
+        return segment;
+    }
+
+    private Segment mapSegment(final Path path, final long id, final int size) throws IOException {
+        final FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return new Segment(id, path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+    }
+
+    private void closeQuietly(final FileChannel channel) {
+        try {
+            channel.close();
+        } catch (final IOException e) {
+            Pat.LOGGER.warn("Could not close an outbox file: {}", e.toString());
+        }
+    }
+
+    /*
+     * Returns the future of a message appended to the outbox, already completed with JOURNALED.
+     */
+    static PatFuture<Long> journaled() {
+        final PatFuture<Long> future = new PatFuture<>();
+        future.complete(JOURNALED);
+        return future;
+    }
+
+    private static final class Segment {
+
+        private final long id;
+        private final Path path;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        // The position the next record is written at.
+        private int position;
+
+        private Segment(final long id, final Path path, final FileChannel channel, final MappedByteBuffer buffer) {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+    }
+
+    private static final class Batch {
+
+        private final List<String> channels = new ArrayList<>();
+        private final List<byte[]> payloads = new ArrayList<>();
+        private long bytes;
+        // The replay position after the batch.
+        private long segment;
+        private int offset;
+    }
+}
@@ -1,9 +1,13 @@
 package com.fabiodm.pat.api;
 
 import com.fabiodm.pat.api.event.PatEvent;
+import com.fabiodm.pat.api.event.PatKeyspaceEvent;
+import com.fabiodm.pat.api.event.PatKeyspaceOperation;
+import io.lettuce.core.RedisClient;
 import io.lettuce.core.RedisFuture;
 import io.lettuce.core.pubsub.StatefulRedisPubSubConnection;
 
+import java.util.concurrent.CompletionStage;
 import java.util.function.Consumer;
 
 /**
@@ -57,6 +61,43 @@ public interface PatClient {
                             final String channel,
                             final Consumer<PatEvent> consumer);
 
+    /**
+     * Uses an already registered listener to subscribe a consumer to the messages
+     * published on a specific redis pubsub channel with the given routing key.
+     * Messages published with other keys are discarded before being decompressed.
+     * <p>
+     * Remember that this method will be unregistered
+     * only when the entire listener is unregistered.
+     *
+     * @param listener an already registered listener
+     * @param channel  the channel to subscribe to
+     * @param key      the routing key to subscribe to
+     * @param consumer the consumer to handle the messages
+     */
+    void subscribeToChannel(final Object listener,
+                            final String channel,
+                            final String key,
+                            final Consumer<PatEvent> consumer);
+
+    /**
+     * Uses an already registered listener to subscribe a consumer to the keyspace notifications
+     * of the keys starting with the given prefix.
+     * Redis only sends the notifications enabled by its {@code notify-keyspace-events} setting,
+     * which must include the keyevent class ({@code E}).
+     * <p>
+     * Remember that this method will be unregistered
+     * only when the entire listener is unregistered.
+     *
+     * @param listener   an already registered listener
+     * @param prefix     the prefix of the keys, or an empty string for every key
+     * @param consumer   the consumer to handle the notifications
+     * @param operations the operations to be notified of
+     */
+    void subscribeToKeyspace(final Object listener,
+                             final String prefix,
+                             final Consumer<PatKeyspaceEvent> consumer,
+                             final PatKeyspaceOperation... operations);
+
     /**
      * Sends a message to a channel synchronously.
      * The message is a byte array.
@@ -95,13 +136,159 @@ public interface PatClient {
      */
     RedisFuture<Long> sendAsync(final String channel, final String message);
 
+    /**
+     * Sends an object to a channel synchronously, encoded with the serializer configured in the
+     * {@link com.fabiodm.pat.PatBuilder} or, if it does not support the object, with the registered
+     * serializer with the highest precedence. The id of the serializer is carried in the message,
+     * so receivers can decode it with {@link PatEvent#as(Class)}.
+     *
+     * @param channel the channel to send the message to
+     * @param message the object to send
+     * @throws IllegalArgumentException if no serializer supports the object
+     */
+    void send(final String channel, final Object message);
+
+    /**
+     * Sends an object to a channel asynchronously, encoded like in {@link #send(String, Object)}.
+     *
+     * @param channel the channel to send the message to
+     * @param message the object to send
+     * @return a {@link RedisFuture<Long>} instance
+     * @throws IllegalArgumentException if no serializer supports the object
+     */
+    RedisFuture<Long> sendAsync(final String channel, final Object message);
+
+    /**
+     * Sends a message to a channel synchronously, tagged with a routing key.
+     * Only the subscriptions to the channel without a key, or with the same key, receive it.
+     * The message is a byte array.
+     *
+     * @param channel the channel to send the message to
+     * @param key     the routing key, at most 255 UTF-8 bytes
+     * @param message the message
+     */
+    void send(final String channel, final String key, final byte[] message);
+
+    /**
+     * Sends a message to a channel synchronously, tagged with a routing key.
+     * The message is a String.
+     *
+     * @param channel the channel to send the message to
+     * @param key     the routing key, at most 255 UTF-8 bytes
+     * @param message the message
+     */
+    void send(final String channel, final String key, final String message);
+
+    /**
+     * Sends a message to a channel asynchronously, tagged with a routing key.
+     * The message is a byte array.
+     *
+     * @param channel the channel to send the message to
+     * @param key     the routing key, at most 255 UTF-8 bytes
+     * @param message the message
+     * @return a {@link RedisFuture<Long>} instance
+     */
+    RedisFuture<Long> sendAsync(final String channel, final String key, final byte[] message);
+
+    /**
+     * Sends a message to a channel asynchronously, tagged with a routing key.
+     * The message is a String.
+     *
+     * @param channel the channel to send the message to
+     * @param key     the routing key, at most 255 UTF-8 bytes
+     * @param message the message
+     * @return a {@link RedisFuture<Long>} instance
+     */
+    RedisFuture<Long> sendAsync(final String channel, final String key, final String message);
+
+    /**
+     * Sends a message to a channel synchronously, stamped with the given id instead of a random one.
+     * Receivers with deduplication enabled drop the messages with the same id received on the channel within their window,
+     * so sending the same logical message twice, from one or several publishers, delivers it once.
+     * The message is a byte array.
+     *
+     * @param channel the channel to send the message to
+     * @param id      the id of the message, not 0
+     * @param message the message
+     * @throws IllegalArgumentException if the id is 0
+     */
+    void send(final String channel, final long id, final byte[] message);
+
+    /**
+     * Sends a message to a channel synchronously, stamped with the given id like in {@link #send(String, long, byte[])}.
+     * The message is a String.
+     *
+     * @param channel the channel to send the message to
+     * @param id      the id of the message, not 0
+     * @param message the message
+     * @throws IllegalArgumentException if the id is 0
+     */
+    void send(final String channel, final long id, final String message);
+
+    /**
+     * Sends a message to a channel asynchronously, stamped with the given id like in {@link #send(String, long, byte[])}.
+     * The message is a byte array.
+     *
+     * @param channel the channel to send the message to
+     * @param id      the id of the message, not 0
+     * @param message the message
+     * @return a {@link RedisFuture<Long>} instance
+     * @throws IllegalArgumentException if the id is 0
+     */
+    RedisFuture<Long> sendAsync(final String channel, final long id, final byte[] message);
+
+    /**
+     * Sends a message to a channel asynchronously, stamped with the given id like in {@link #send(String, long, byte[])}.
+     * The message is a String.
+     *
+     * @param channel the channel to send the message to
+     * @param id      the id of the message, not 0
+     * @param message the message
+     * @return a {@link RedisFuture<Long>} instance
+     * @throws IllegalArgumentException if the id is 0
+     */
+    RedisFuture<Long> sendAsync(final String channel, final long id, final String message);
+
+    /**
+     * Sends a message to a channel asynchronously, packing it together with the other
+     * messages sent to the same channel within the aggregation window.
+     * If aggregation is not enabled in the {@link com.fabiodm.pat.PatBuilder}, the message is sent right away.
+     * The message is a byte array.
+     *
+     * @param channel the channel to send the message to
+     * @param message the message
+     * @return a {@link CompletionStage<Long>} completed when the frame containing the message is published
+     */
+    CompletionStage<Long> sendAggregated(final String channel, final byte[] message);
+
+    /**
+     * Sends a message to a channel asynchronously, packing it together with the other
+     * messages sent to the same channel within the aggregation window.
+     * The message is a String.
+     *
+     * @param channel the channel to send the message to
+     * @param message the message
+     * @return a {@link CompletionStage<Long>} completed when the frame containing the message is published
+     */
+    CompletionStage<Long> sendAggregated(final String channel, final String message);
+
     /**
      * Gets the underlying Redis pub/sub connection.
+     * The connection uses a plain byte array codec: Pat compresses and frames the messages itself,
+     * so messages published directly on this connection are neither compressed nor framed.
+     * Receivers with compression enabled fail to decompress them and drop them, use the send methods instead.
      *
      * @return the Redis pub/sub connection
      */
     StatefulRedisPubSubConnection<String, byte[]> getConnection();
 
+    /**
+     * Gets the Redis client used by this system, which can be used to open other connections to the same server.
+     *
+     * @return the Redis client
+     */
+    RedisClient getRedisClient();
+
     /**
      * Checks if the system is connected to the server.
      *
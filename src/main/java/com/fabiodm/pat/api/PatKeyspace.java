@@ -0,0 +1,34 @@
+package com.fabiodm.pat.api;
+
+import com.fabiodm.pat.api.event.PatKeyspaceOperation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * This annotation is used to mark methods that should be invoked when Redis notifies an operation on a key.
+ * The annotated methods must take a single {@link com.fabiodm.pat.api.event.PatKeyspaceEvent} parameter,
+ * and should be part of a class registered as a listener in the Pat system.
+ * Redis only sends the notifications enabled by its {@code notify-keyspace-events} setting,
+ * which must include the keyevent class ({@code E}).
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface PatKeyspace {
+    /**
+     * The prefix of the keys that the annotated method is interested in.
+     * When empty, the method receives the notifications of every key.
+     *
+     * @return the key prefix, or an empty string
+     */
+    String prefix() default "";
+
+    /**
+     * The operations that the annotated method is interested in.
+     *
+     * @return the operations
+     */
+    PatKeyspaceOperation[] events();
+}
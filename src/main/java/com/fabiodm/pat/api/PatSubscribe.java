@@ -19,4 +19,13 @@ public @interface PatSubscribe {
      * @return the name of the channel
      */
     String value();
+
+    /**
+     * The routing key that the annotated method is subscribed to.
+     * When set, the method only receives the messages published on the channel with this key.
+     * When empty, the method receives every message published on the channel.
+     *
+     * @return the routing key, or an empty string
+     */
+    String key() default "";
 }
\ No newline at end of file
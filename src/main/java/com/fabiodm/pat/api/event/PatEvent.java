@@ -3,19 +3,199 @@ package com.fabiodm.pat.api.event;
 import com.fabiodm.pat.api.parsers.PatParser;
 import com.fabiodm.pat.api.parsers.impl.GsonParser;
 import com.fabiodm.pat.api.parsers.impl.ProtobufParser;
+import com.fabiodm.pat.api.serializer.PatSerializer;
+import com.fabiodm.pat.api.serializer.PatSerializers;
 import com.google.gson.JsonElement;
 import com.google.protobuf.Parser;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.function.Supplier;
 
 /**
  * This class represents an event in the Pat system.
- * It holds a reference to the channel name and the message as a byte array.
- *
- * @param channel the channel name
- * @param message the message
+ * It holds a reference to the channel name, the routing key, the serializer id and the message as a byte array.
+ * The message can be loaded lazily: messages stored with a claim check are only decompressed
+ * the first time the message is read, so handlers that do not read it do not pay for it.
+ * Two events are equal if their channel, key and format are equal and they hold the same message array,
+ * or the same loader, so comparing or hashing an event never loads its message.
  */
-public record PatEvent(String channel, byte[] message) {
+public final class PatEvent {
+
+    private final String channel;
+    private final String key;
+    private final byte format;
+    // The serializer configured on the receiving client, preferred over the registered ones, or null.
+    private final PatSerializer serializer;
+    // The message, or null until it is loaded.
+    private volatile byte[] message;
+    // The supplier loading the message, null once it has been loaded. Guarded by this.
+    private Supplier<byte[]> loader;
+    // The message or the loader given at construction, compared by equals without loading the message.
+    private final Object source;
+
+    /**
+     * Constructs a PatEvent.
+     *
+     * @param channel the channel name
+     * @param key     the routing key the message was published with, or null if it has none
+     * @param format  the id of the serializer the message was encoded with, or 0 if it was sent as raw bytes
+     * @param message the message
+     */
+    public PatEvent(final String channel, final String key, final byte format, final byte[] message) {
+        this(channel, key, format, message, null);
+    }
+
+    /**
+     * Constructs a PatEvent decoded in priority with the serializer configured on the receiving client.
+     *
+     * @param channel    the channel name
+     * @param key        the routing key the message was published with, or null if it has none
+     * @param format     the id of the serializer the message was encoded with, or 0 if it was sent as raw bytes
+     * @param message    the message
+     * @param serializer the serializer configured on the receiving client, or null
+     */
+    public PatEvent(final String channel,
+                    final String key,
+                    final byte format,
+                    final byte[] message,
+                    final PatSerializer serializer) {
+        this.channel = channel;
+        this.key = key;
+        this.format = format;
+        this.message = message;
+        this.serializer = serializer;
+        this.source = message;
+    }
+
+    /**
+     * Constructs a PatEvent whose message is loaded by the given supplier the first time it is read.
+     *
+     * @param channel the channel name
+     * @param key     the routing key the message was published with, or null if it has none
+     * @param format  the id of the serializer the message was encoded with, or 0 if it was sent as raw bytes
+     * @param loader  the supplier loading the message, called at most once
+     */
+    public PatEvent(final String channel, final String key, final byte format, final Supplier<byte[]> loader) {
+        this(channel, key, format, loader, null);
+    }
+
+    /**
+     * Constructs a PatEvent whose message is loaded by the given supplier the first time it is read,
+     * decoded in priority with the serializer configured on the receiving client.
+     *
+     * @param channel    the channel name
+     * @param key        the routing key the message was published with, or null if it has none
+     * @param format     the id of the serializer the message was encoded with, or 0 if it was sent as raw bytes
+     * @param loader     the supplier loading the message, called at most once
+     * @param serializer the serializer configured on the receiving client, or null
+     */
+    public PatEvent(final String channel,
+                    final String key,
+                    final byte format,
+                    final Supplier<byte[]> loader,
+                    final PatSerializer serializer) {
+        this.channel = channel;
+        this.key = key;
+        this.format = format;
+        this.serializer = serializer;
+        this.loader = loader;
+        this.source = loader;
+    }
+
+    /**
+     * Constructs a PatEvent without a routing key.
+     *
+     * @param channel the channel name
+     * @param message the message
+     */
+    public PatEvent(final String channel, final byte[] message) {
+        this(channel, null, (byte) 0, message);
+    }
+
+    /**
+     * Constructs a PatEvent with a routing key.
+     *
+     * @param channel the channel name
+     * @param key     the routing key, or null
+     * @param message the message
+     */
+    public PatEvent(final String channel, final String key, final byte[] message) {
+        this(channel, key, (byte) 0, message);
+    }
+
+    /**
+     * Returns the channel name.
+     *
+     * @return the channel name
+     */
+    public String channel() {
+        return this.channel;
+    }
+
+    /**
+     * Returns the routing key the message was published with.
+     *
+     * @return the routing key, or null if the message has none
+     */
+    public String key() {
+        return this.key;
+    }
+
+    /**
+     * Returns the id of the serializer the message was encoded with.
+     *
+     * @return the serializer id, or 0 if the message was sent as raw bytes
+     */
+    public byte format() {
+        return this.format;
+    }
+
+    /**
+     * Returns the message, loading it if it has not been loaded yet.
+     *
+     * @return the message
+     * @throws IllegalStateException if the message cannot be loaded
+     */
+    public byte[] message() {
+        final byte[] message = this.message;
+        return message != null ? message : this.load();
+    }
+
+    /**
+     * Decodes the message into an object of the given type.
+     * The serializer is the one whose id was carried by the message; for raw messages
+     * it is the registered serializer with the highest precedence supporting the type.
+     * In both cases, the serializer configured on the receiving client is preferred when it matches.
+     *
+     * @param type the type of the object
+     * @param <T>  the type of the object
+     * @return the decoded object, or an empty Optional if the message could not be decoded
+     */
+    public <T> Optional<T> as(final Class<T> type) {
+        final PatSerializer serializer = this.serializerFor(type);
+        final byte[] message = this.message();
+        if (serializer == null || message == null) return Optional.empty();
+
+        try {
+            return Optional.ofNullable(serializer.deserialize(message, 0, message.length, type));
+        } catch (final RuntimeException e) {
+            // Serializers report malformed messages and unsupported types with their own unchecked exceptions.
+            return Optional.empty();
+        }
+    }
+
+    private PatSerializer serializerFor(final Class<?> type) {
+        if (this.format != 0) {
+            return this.serializer != null && this.serializer.id() == this.format
+                    ? this.serializer
+                    : PatSerializers.get(this.format);
+        }
+        return this.serializer != null && this.serializer.supports(type)
+                ? this.serializer
+                : PatSerializers.forType(type);
+    }
 
     public <T> PatParser<T> asProtobufParser(final Parser<T> parser) {
         return new ProtobufParser<>(this, parser);
@@ -26,14 +206,41 @@ public record PatEvent(String channel, byte[] message) {
     }
 
     /**
-     * Returns the message as a String.
+     * Returns the message as a UTF-8 String.
      * If the message is null, null is returned.
      *
      * @return the message as a String, or null if the message is null
      */
     public String messageAsString() {
-        return Optional.ofNullable(this.message)
-                .map(String::new)
-                .orElse(null);
+        final byte[] message = this.message();
+        return message != null ? new String(message, StandardCharsets.UTF_8) : null;
+    }
+
+    private synchronized byte[] load() {
+        if (this.loader != null) {
+            this.message = this.loader.get();
+            this.loader = null;
+        }
+        return this.message;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) return true;
+        if (!(o instanceof PatEvent that)) return false;
+        return this.format == that.format
+                && Objects.equals(this.channel, that.channel)
+                && Objects.equals(this.key, that.key)
+                && this.source == that.source;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(this.channel, this.key, this.format, System.identityHashCode(this.source));
+    }
+
+    @Override
+    public String toString() {
+        return "PatEvent[channel=" + this.channel + ", key=" + this.key + ", format=" + this.format + "]";
     }
 }
\ No newline at end of file
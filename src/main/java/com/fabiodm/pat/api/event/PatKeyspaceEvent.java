@@ -0,0 +1,11 @@
+package com.fabiodm.pat.api.event;
+
+/**
+ * This class represents a keyspace notification sent by Redis.
+ *
+ * @param db        the database the key belongs to
+ * @param key       the key
+ * @param operation the operation performed on the key
+ */
+public record PatKeyspaceEvent(int db, String key, PatKeyspaceOperation operation) {
+}
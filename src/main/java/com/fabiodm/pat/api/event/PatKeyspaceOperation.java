@@ -0,0 +1,57 @@
+package com.fabiodm.pat.api.event;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * This enum lists the keyspace events Redis can notify, named after the commands or actions producing them.
+ * Redis only sends the events of the classes enabled by its {@code notify-keyspace-events} setting.
+ */
+public enum PatKeyspaceOperation {
+    // Generic events
+    DEL, EXPIRE, EXPIRED, EVICTED, PERSIST, RENAME_FROM, RENAME_TO, COPY_TO, MOVE_FROM, MOVE_TO, RESTORE, NEW,
+    // String events
+    SET, SETRANGE, APPEND, INCRBY, INCRBYFLOAT,
+    // List events
+    LPUSH, RPUSH, LPOP, RPOP, LINSERT, LSET, LREM, LTRIM,
+    // Hash events
+    HSET, HINCRBY, HINCRBYFLOAT, HDEL, HEXPIRE, HEXPIRED, HPERSIST,
+    // Set events
+    SADD, SREM, SPOP, SINTERSTORE, SUNIONSTORE, SDIFFSTORE,
+    // Sorted set events
+    ZADD, ZINCR, ZREM, ZREMRANGEBYSCORE, ZREMRANGEBYRANK, ZREMRANGEBYLEX, ZPOPMIN, ZPOPMAX,
+    ZINTERSTORE, ZUNIONSTORE, ZDIFFSTORE,
+    // Stream events
+    XADD, XDEL, XTRIM, XSETID;
+
+    private static final Map<String, PatKeyspaceOperation> BY_EVENT_NAME = new HashMap<>();
+
+    static {
+        for (final PatKeyspaceOperation operation : values()) {
+            BY_EVENT_NAME.put(operation.eventName, operation);
+        }
+    }
+
+    // The name of the event in the notification channels.
+    private final String eventName = this.name().toLowerCase(Locale.ROOT);
+
+    /**
+     * Returns the name of the event, as used in the notification channels.
+     *
+     * @return the name of the event
+     */
+    public String getEventName() {
+        return this.eventName;
+    }
+
+    /**
+     * Gets the operation with the given event name.
+     *
+     * @param eventName the name of the event
+     * @return the operation, or null if the event is unknown
+     */
+    public static PatKeyspaceOperation fromEventName(final String eventName) {
+        return BY_EVENT_NAME.get(eventName);
+    }
+}
@@ -3,9 +3,13 @@ package com.fabiodm.pat.api.parsers.impl;
 import com.fabiodm.pat.api.event.PatEvent;
 import com.fabiodm.pat.api.parsers.PatParser;
 import com.google.gson.JsonElement;
+import com.google.gson.JsonIOException;
 import com.google.gson.JsonParser;
 import com.google.gson.JsonSyntaxException;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.Optional;
 
 /*
@@ -19,10 +23,13 @@ public class GsonParser extends PatParser<JsonElement> {
 
     @Override
     public Optional<JsonElement> asObject() {
-        final String rawJson = this.event.messageAsString();
+        final byte[] message = this.event.message();
+        if (message == null) return Optional.empty();
+
+        // Stream the UTF-8 bytes into the parser instead of building a String first.
         try {
-            return Optional.of(JsonParser.parseString(rawJson));
-        } catch (JsonSyntaxException ex) {
+            return Optional.of(JsonParser.parseReader(new InputStreamReader(new ByteArrayInputStream(message), StandardCharsets.UTF_8)));
+        } catch (JsonSyntaxException | JsonIOException ex) {
             return Optional.empty();
         }
     }
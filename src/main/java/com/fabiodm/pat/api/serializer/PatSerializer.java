@@ -0,0 +1,50 @@
+package com.fabiodm.pat.api.serializer;
+
+/**
+ * This interface defines a format used to encode the objects sent with {@link com.fabiodm.pat.api.PatClient#send(String, Object)}.
+ * Every serializer has a unique id, which is carried in the payload so that receivers can decode
+ * the message without knowing in advance which format the publisher used.
+ * <p>
+ * Ids from 1 to 15 are reserved for the serializers shipped with Pat.
+ * Custom serializers can be registered through {@link PatSerializers#register(PatSerializer)}
+ * or discovered with {@link java.util.ServiceLoader}.
+ */
+public interface PatSerializer {
+
+    /**
+     * Returns the id of the format, carried in the payload of the messages.
+     *
+     * @return the id of the format, never 0
+     */
+    byte id();
+
+    /**
+     * Checks if this serializer can encode and decode instances of the given type.
+     *
+     * @param type the type to check
+     * @return true if the type is supported, false otherwise
+     */
+    boolean supports(final Class<?> type);
+
+    /**
+     * Encodes an object.
+     *
+     * @param value the object to encode
+     * @return the encoded bytes
+     * @throws IllegalArgumentException if the object cannot be encoded
+     */
+    byte[] serialize(final Object value);
+
+    /**
+     * Decodes an object from a range of the given bytes.
+     *
+     * @param bytes  the array containing the encoded object
+     * @param offset the offset of the encoded object
+     * @param length the length of the encoded object
+     * @param type   the type of the object
+     * @param <T>    the type of the object
+     * @return the decoded object
+     * @throws IllegalArgumentException if the bytes cannot be decoded into the given type
+     */
+    <T> T deserialize(final byte[] bytes, final int offset, final int length, final Class<T> type);
+}
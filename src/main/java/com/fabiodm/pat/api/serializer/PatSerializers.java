@@ -0,0 +1,98 @@
+package com.fabiodm.pat.api.serializer;
+
+import com.fabiodm.pat.Pat;
+import com.fabiodm.pat.api.serializer.impl.CborSerializer;
+import com.fabiodm.pat.api.serializer.impl.GsonSerializer;
+import com.fabiodm.pat.api.serializer.impl.ProtobufSerializer;
+
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+
+/**
+ * This class is the registry of the serializers known to Pat, indexed by their id.
+ * The built-in serializers are registered only when their optional dependency is on the classpath,
+ * followed by the ones found by {@link ServiceLoader}.
+ */
+public final class PatSerializers {
+
+    // The serializers indexed by their id.
+    private static final PatSerializer[] BY_ID = new PatSerializer[256];
+    // The serializers in order of precedence, the most recently registered first.
+    private static final List<PatSerializer> SERIALIZERS = new CopyOnWriteArrayList<>();
+
+    static {
+        // Registered from the least to the most preferred, since the last registered one wins.
+        // Lambdas instead of constructor references, so that the classes are not loaded when their dependency is missing.
+        registerBuiltIn("com.fasterxml.jackson.dataformat.cbor.CBORFactory", () -> new CborSerializer());
+        registerBuiltIn("com.google.gson.Gson", () -> new GsonSerializer());
+        registerBuiltIn("com.google.protobuf.MessageLite", () -> new ProtobufSerializer());
+
+        try {
+            for (final PatSerializer serializer : ServiceLoader.load(PatSerializer.class)) {
+                register(serializer);
+            }
+        } catch (final ServiceConfigurationError e) {
+            Pat.LOGGER.error("An error occurred while loading the serializers: ", e);
+        }
+    }
+
+    private PatSerializers() {
+    }
+
+    /**
+     * Registers a serializer, replacing the one with the same id if present.
+     * The serializers registered later take precedence when looking up a serializer for a type.
+     *
+     * @param serializer the serializer to register
+     * @throws IllegalArgumentException if the id of the serializer is 0
+     */
+    public static synchronized void register(final PatSerializer serializer) {
+        if (serializer.id() == 0) {
+            throw new IllegalArgumentException("The serializer id 0 is reserved");
+        }
+
+        final PatSerializer previous = BY_ID[serializer.id() & 0xFF];
+        if (previous != null) {
+            SERIALIZERS.remove(previous);
+        }
+
+        BY_ID[serializer.id() & 0xFF] = serializer;
+        SERIALIZERS.add(0, serializer);
+    }
+
+    /**
+     * Returns the serializer with the given id.
+     *
+     * @param id the id of the serializer
+     * @return the serializer, or null if no serializer has the given id
+     */
+    public static PatSerializer get(final byte id) {
+        return BY_ID[id & 0xFF];
+    }
+
+    /**
+     * Returns the serializer with the highest precedence supporting the given type.
+     *
+     * @param type the type to encode or decode
+     * @return the serializer, or null if no serializer supports the type
+     */
+    public static PatSerializer forType(final Class<?> type) {
+        for (final PatSerializer serializer : SERIALIZERS) {
+            if (serializer.supports(type)) return serializer;
+        }
+        return null;
+    }
+
+    private static void registerBuiltIn(final String dependency, final Supplier<PatSerializer> factory) {
+        try {
+            Class.forName(dependency, false, PatSerializers.class.getClassLoader());
+        } catch (final ClassNotFoundException | LinkageError e) {
+            return;
+        }
+
+        register(factory.get());
+    }
+}
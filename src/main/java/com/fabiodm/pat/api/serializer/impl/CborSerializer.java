@@ -0,0 +1,55 @@
+package com.fabiodm.pat.api.serializer.impl;
+
+import com.fabiodm.pat.api.serializer.PatSerializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+
+import java.io.IOException;
+
+/*
+ * Serializer encoding objects as CBOR with Jackson, a compact binary alternative to JSON.
+ * It supports every type, so it is only chosen for a type when it is configured explicitly
+ * or when no other serializer is available.
+ * */
+public class CborSerializer implements PatSerializer {
+
+    public static final byte ID = 3;
+
+    private final ObjectMapper mapper;
+
+    public CborSerializer() {
+        this(new ObjectMapper(new CBORFactory()));
+    }
+
+    public CborSerializer(final ObjectMapper mapper) {
+        this.mapper = mapper;
+    }
+
+    @Override
+    public byte id() {
+        return ID;
+    }
+
+    @Override
+    public boolean supports(final Class<?> type) {
+        return true;
+    }
+
+    @Override
+    public byte[] serialize(final Object value) {
+        try {
+            return this.mapper.writeValueAsBytes(value);
+        } catch (final IOException e) {
+            throw new IllegalArgumentException("Could not serialize " + value.getClass().getSimpleName() + " to CBOR", e);
+        }
+    }
+
+    @Override
+    public <T> T deserialize(final byte[] bytes, final int offset, final int length, final Class<T> type) {
+        try {
+            return this.mapper.readValue(bytes, offset, length, type);
+        } catch (final IOException e) {
+            throw new IllegalArgumentException("Could not deserialize " + type.getSimpleName() + " from CBOR", e);
+        }
+    }
+}
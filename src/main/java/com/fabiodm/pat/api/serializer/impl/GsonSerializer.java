@@ -0,0 +1,66 @@
+package com.fabiodm.pat.api.serializer.impl;
+
+import com.fabiodm.pat.api.serializer.PatSerializer;
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * Serializer encoding objects as UTF-8 JSON with Gson.
+ * Objects are streamed from and to the message bytes, without building an intermediate String.
+ * */
+public class GsonSerializer implements PatSerializer {
+
+    public static final byte ID = 1;
+
+    private final Gson gson;
+
+    public GsonSerializer() {
+        this(new Gson());
+    }
+
+    public GsonSerializer(final Gson gson) {
+        this.gson = gson;
+    }
+
+    @Override
+    public byte id() {
+        return ID;
+    }
+
+    @Override
+    public boolean supports(final Class<?> type) {
+        return true;
+    }
+
+    @Override
+    public byte[] serialize(final Object value) {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+        try (Writer writer = new OutputStreamWriter(buffer, StandardCharsets.UTF_8)) {
+            this.gson.toJson(value, writer);
+        } catch (final IOException | JsonIOException e) {
+            throw new IllegalArgumentException("Could not serialize " + value.getClass().getSimpleName() + " to JSON", e);
+        }
+        return buffer.toByteArray();
+    }
+
+    @Override
+    public <T> T deserialize(final byte[] bytes, final int offset, final int length, final Class<T> type) {
+        final JsonReader reader = new JsonReader(new InputStreamReader(
+                new ByteArrayInputStream(bytes, offset, length), StandardCharsets.UTF_8));
+        try {
+            return this.gson.fromJson(reader, type);
+        } catch (final JsonSyntaxException | JsonIOException e) {
+            throw new IllegalArgumentException("Could not deserialize " + type.getSimpleName() + " from JSON", e);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.fabiodm.pat.api.serializer.impl;
+
+import com.fabiodm.pat.api.serializer.PatSerializer;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.MessageLite;
+import com.google.protobuf.Parser;
+
+import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
+
+/*
+ * Serializer encoding Protobuf messages in their binary format.
+ * The parser of every message class is looked up once through its generated static parser() method.
+ * */
+public class ProtobufSerializer implements PatSerializer {
+
+    public static final byte ID = 2;
+
+    private static final ClassValue<Parser<?>> PARSERS = new ClassValue<>() {
+        @Override
+        protected Parser<?> computeValue(final Class<?> type) {
+            try {
+                return (Parser<?>) type.getMethod("parser").invoke(null);
+            } catch (final NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+                throw new IllegalArgumentException("Could not find the parser of " + type.getSimpleName(), e);
+            }
+        }
+    };
+
+    @Override
+    public byte id() {
+        return ID;
+    }
+
+    @Override
+    public boolean supports(final Class<?> type) {
+        return MessageLite.class.isAssignableFrom(type);
+    }
+
+    @Override
+    public byte[] serialize(final Object value) {
+        if (!(value instanceof MessageLite message)) {
+            throw new IllegalArgumentException(value.getClass().getSimpleName() + " is not a Protobuf message");
+        }
+        return message.toByteArray();
+    }
+
+    @Override
+    public <T> T deserialize(final byte[] bytes, final int offset, final int length, final Class<T> type) {
+        try {
+            return type.cast(PARSERS.get(type).parseFrom(ByteBuffer.wrap(bytes, offset, length)));
+        } catch (final InvalidProtocolBufferException e) {
+            throw new IllegalArgumentException("Could not deserialize " + type.getSimpleName() + " from Protobuf", e);
+        }
+    }
+}
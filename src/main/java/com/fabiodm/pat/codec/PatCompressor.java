@@ -0,0 +1,75 @@
+package com.fabiodm.pat.codec;
+
+import io.lettuce.core.codec.CompressionCodec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * This class compresses and decompresses message bodies.
+ * The output is the same produced by Lettuce's {@link CompressionCodec}, but compressing outside the codec
+ * lets Pat keep the frame headers readable and decompress a body only when someone is interested in it.
+ */
+public final class PatCompressor {
+
+    // The compression type used for the messages.
+    private final CompressionCodec.CompressionType compressionType;
+
+    /**
+     * Constructs a PatCompressor with the given compression type.
+     *
+     * @param compressionType the compression type to use
+     */
+    public PatCompressor(final CompressionCodec.CompressionType compressionType) {
+        this.compressionType = compressionType;
+    }
+
+    /**
+     * Compresses the given bytes.
+     *
+     * @param bytes the bytes to compress
+     * @return the compressed bytes
+     */
+    public byte[] compress(final byte[] bytes) {
+        if (bytes.length == 0) return bytes;
+
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream(bytes.length / 2 + 32);
+        try (OutputStream out = this.compressionType == CompressionCodec.CompressionType.GZIP
+                ? new GZIPOutputStream(buffer)
+                : new DeflaterOutputStream(buffer)) {
+            out.write(bytes);
+        } catch (final IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Decompresses a range of the given bytes.
+     *
+     * @param bytes  the array containing the compressed bytes
+     * @param offset the offset of the compressed bytes
+     * @param length the number of compressed bytes
+     * @return the decompressed bytes
+     * @throws IllegalStateException if the bytes are not valid compressed data
+     */
+    public byte[] decompress(final byte[] bytes, final int offset, final int length) {
+        if (length == 0) return new byte[0];
+
+        final InputStream source = new ByteArrayInputStream(bytes, offset, length);
+        try (InputStream in = this.compressionType == CompressionCodec.CompressionType.GZIP
+                ? new GZIPInputStream(source)
+                : new InflaterInputStream(source)) {
+            return in.readAllBytes();
+        } catch (final IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package com.fabiodm.pat.codec;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * This class represents the header of a Pat frame and contains the helpers used to write and read frames.
+ * A frame starts with a NUL byte followed by a magic byte and a flags byte.
+ * Text, JSON and compressed payloads never start with a NUL byte, but arbitrary binary messages can start with the same
+ * two bytes: Pat wraps those in a frame without flags before publishing them, so that receivers unwrap them intact.
+ * Binary messages published by other clients without Pat can still be mistaken for frames.
+ * The flags are followed by the optional header fields, in the order of their flags, and then by the body.
+ * The header is never compressed, so it can be read before deciding whether the body is worth decompressing.
+ *
+ * @param flags      the flags of the frame
+ * @param key        the routing key, or null if the frame has none
+ * @param format     the id of the serializer the body was encoded with, or 0 if the frame has none
+ * @param id         the id stamped by the publisher, or 0 if the frame has none
+ * @param bodyOffset the offset of the body in the payload
+ */
+public record PatFrame(byte flags, String key, byte format, long id, int bodyOffset) {
+
+    // The first two bytes of every frame.
+    private static final byte NUL = 0x00;
+    private static final byte MAGIC = (byte) 0xFA;
+
+    // The length of the fixed part of the header (NUL, magic and flags).
+    public static final int HEADER_LENGTH = 3;
+
+    // Flag set when the body contains several length-prefixed messages.
+    public static final byte FLAG_BATCH = 0x01;
+    // Flag set when the header contains a routing key, written as a length byte followed by UTF-8 bytes.
+    public static final byte FLAG_KEY = 0x02;
+    // Flag set when the header contains the id of the serializer the body was encoded with, written as one byte.
+    public static final byte FLAG_FORMAT = 0x04;
+    // Flag set when the header contains the id stamped by the publisher, written as eight bytes.
+    public static final byte FLAG_ID = 0x08;
+    // Flag set when the body is stored in a Redis key, and the frame body is the hexadecimal SHA-256 hash naming the key.
+    public static final byte FLAG_CLAIM = 0x10;
+
+    // The maximum length in bytes of a routing key.
+    public static final int MAX_KEY_LENGTH = 255;
+
+    /**
+     * Checks if the given flag is set.
+     *
+     * @param flag the flag to check
+     * @return true if the flag is set, false otherwise
+     */
+    public boolean hasFlag(final byte flag) {
+        return (this.flags & flag) != 0;
+    }
+
+    /**
+     * Checks if the given payload is a Pat frame.
+     *
+     * @param payload the payload to check
+     * @return true if the payload starts with a frame header, false otherwise
+     */
+    public static boolean isFrame(final byte[] payload) {
+        return payload != null
+                && payload.length >= HEADER_LENGTH
+                && payload[0] == NUL
+                && payload[1] == MAGIC;
+    }
+
+    /**
+     * Reads the header of the given payload.
+     *
+     * @param payload the payload to read
+     * @return the header of the frame, or null if the payload is not a frame
+     * @throws IllegalArgumentException if the header is truncated
+     */
+    public static PatFrame decode(final byte[] payload) {
+        if (!isFrame(payload)) return null;
+
+        final byte flags = payload[2];
+        int offset = HEADER_LENGTH;
+
+        String key = null;
+        if ((flags & FLAG_KEY) != 0) {
+            final int length = payload.length > offset ? payload[offset++] & 0xFF : -1;
+            if (length < 0 || offset + length > payload.length) {
+                throw new IllegalArgumentException("Truncated frame header");
+            }
+
+            key = new String(payload, offset, length, StandardCharsets.UTF_8);
+            offset += length;
+        }
+
+        byte format = 0;
+        if ((flags & FLAG_FORMAT) != 0) {
+            if (offset >= payload.length) {
+                throw new IllegalArgumentException("Truncated frame header");
+            }
+
+            format = payload[offset++];
+        }
+
+        long id = 0;
+        if ((flags & FLAG_ID) != 0) {
+            if (offset + Long.BYTES > payload.length) {
+                throw new IllegalArgumentException("Truncated frame header");
+            }
+
+            id = ByteBuffer.wrap(payload, offset, Long.BYTES).getLong();
+            offset += Long.BYTES;
+        }
+
+        return new PatFrame(flags, key, format, id, offset);
+    }
+
+    /**
+     * Writes a frame with the given flags, header fields and body.
+     *
+     * @param flags  the flags of the frame, the header fields flags are added automatically
+     * @param key    the routing key, or null
+     * @param format the id of the serializer the body was encoded with, or 0
+     * @param body   the body of the frame
+     * @return the encoded frame
+     * @throws IllegalArgumentException if the routing key is longer than {@link #MAX_KEY_LENGTH} bytes
+     */
+    public static byte[] encode(final byte flags, final String key, final byte format, final byte[] body) {
+        return encode(flags, key, format, 0, body);
+    }
+
+    /**
+     * Writes a frame with the given flags, header fields, message id and body.
+     *
+     * @param flags  the flags of the frame, the header fields flags are added automatically
+     * @param key    the routing key, or null
+     * @param format the id of the serializer the body was encoded with, or 0
+     * @param id     the id of the message, or 0
+     * @param body   the body of the frame
+     * @return the encoded frame
+     * @throws IllegalArgumentException if the routing key is longer than {@link #MAX_KEY_LENGTH} bytes
+     */
+    public static byte[] encode(byte flags, final String key, final byte format, final long id, final byte[] body) {
+        byte[] keyBytes = null;
+        int length = HEADER_LENGTH + body.length;
+        if (key != null) {
+            keyBytes = key.getBytes(StandardCharsets.UTF_8);
+            if (keyBytes.length > MAX_KEY_LENGTH) {
+                throw new IllegalArgumentException("Routing keys cannot be longer than " + MAX_KEY_LENGTH + " bytes");
+            }
+
+            flags |= FLAG_KEY;
+            length += 1 + keyBytes.length;
+        }
+        if (format != 0) {
+            flags |= FLAG_FORMAT;
+            length++;
+        }
+        if (id != 0) {
+            flags |= FLAG_ID;
+            length += Long.BYTES;
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.put(NUL).put(MAGIC).put(flags);
+        if (keyBytes != null) {
+            buffer.put((byte) keyBytes.length).put(keyBytes);
+        }
+        if (format != 0) {
+            buffer.put(format);
+        }
+        if (id != 0) {
+            buffer.putLong(id);
+        }
+        buffer.put(body);
+        return buffer.array();
+    }
+
+    /**
+     * Packs the given messages into the body of a batch frame.
+     * Every message is prefixed by its length encoded as a varint.
+     *
+     * @param messages the messages to pack
+     * @param size     the sum of the lengths of the messages
+     * @return the encoded body
+     */
+    public static byte[] encodeBatch(final List<byte[]> messages, final int size) {
+        int length = varIntSize(messages.size()) + size;
+        for (final byte[] message : messages) {
+            length += varIntSize(message.length);
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        writeVarInt(buffer, messages.size());
+        for (final byte[] message : messages) {
+            writeVarInt(buffer, message.length);
+            buffer.put(message);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Unpacks the body of a batch frame, passing every message it contains to the given consumer in order.
+     *
+     * @param body     the body of the batch frame
+     * @param consumer the consumer of the unpacked messages
+     * @throws IllegalArgumentException if the body is truncated or malformed
+     */
+    public static void decodeBatch(final byte[] body, final Consumer<byte[]> consumer) {
+        final ByteBuffer buffer = ByteBuffer.wrap(body);
+        final int count = readVarInt(buffer);
+        // Every message takes at least the byte of its length, so a larger count cannot be genuine.
+        if (count < 0 || count > buffer.remaining()) {
+            throw new IllegalArgumentException("Malformed message count in batch frame");
+        }
+
+        for (int i = 0; i < count; i++) {
+            final int length = readVarInt(buffer);
+            if (length < 0 || length > buffer.remaining()) {
+                throw new IllegalArgumentException("Truncated batch frame");
+            }
+
+            final byte[] message = new byte[length];
+            buffer.get(message);
+            consumer.accept(message);
+        }
+    }
+
+    private static int varIntSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static void writeVarInt(final ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static int readVarInt(final ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            if (!buffer.hasRemaining()) {
+                throw new IllegalArgumentException("Truncated batch frame");
+            }
+
+            final byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint in batch frame");
+    }
+}
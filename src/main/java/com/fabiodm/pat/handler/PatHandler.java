@@ -1,13 +1,19 @@
 package com.fabiodm.pat.handler;
 
 import com.fabiodm.pat.Pat;
+import com.fabiodm.pat.api.PatKeyspace;
 import com.fabiodm.pat.api.PatSubscribe;
 import com.fabiodm.pat.api.event.PatEvent;
+import com.fabiodm.pat.api.event.PatKeyspaceEvent;
 import com.fabiodm.pat.exception.PatEventInvocationException;
 import com.fabiodm.pat.exception.PatRegistrationException;
 import com.fabiodm.pat.handler.impl.AnnotatedSubscription;
+import com.fabiodm.pat.handler.impl.KeyspaceSubscription;
 
 import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -18,11 +24,20 @@ import java.util.concurrent.CopyOnWriteArrayList;
 /**
  * This class represents a listener for PatEvents.
  * It holds a reference to the listener object and a map of methods that are annotated with PatSubscribe.
+ * Subscriptions with a routing key are indexed by channel and key, so that a message is only
+ * dispatched to the subscriptions that asked for its key.
  */
 public final class PatHandler {
 
     private final Object listener;
+    // The watchdog timing the subscriptions, null if disabled.
+    private final PatWatchdog watchdog;
+    // The subscriptions receiving every message of a channel.
     private final Map<String, List<PatSubscription>> channels = new ConcurrentHashMap<>();
+    // The subscriptions receiving only the messages of a channel published with a specific key.
+    private final Map<String, Map<String, List<PatSubscription>>> routes = new ConcurrentHashMap<>();
+    // The subscriptions to keyspace notifications, dispatched through the PatKeyspaceIndex.
+    private final List<KeyspaceSubscription> keyspaceSubscriptions = new CopyOnWriteArrayList<>();
 
     /**
      * Constructs a PatHandler with the given listener object.
@@ -31,16 +46,36 @@ public final class PatHandler {
      * @param listener the listener object
      */
     public PatHandler(final Object listener) {
+        this(listener, null);
+    }
+
+    /**
+     * Constructs a PatHandler with the given listener object, whose subscriptions are timed by the given watchdog.
+     *
+     * @param listener the listener object
+     * @param watchdog the watchdog timing the subscriptions, or null
+     */
+    public PatHandler(final Object listener, final PatWatchdog watchdog) {
         this.listener = listener;
+        this.watchdog = watchdog;
         this.registerAnnotatedSubscriptions();
     }
 
     private void registerAnnotatedSubscriptions() {
         for (final Method method : listener.getClass().getMethods()) {
-            final String subscriptionChannel = this.getSubscriptionFromMethod(method);
-            if (subscriptionChannel != null) {
+            final PatSubscribe subscription = this.getSubscriptionFromMethod(method);
+            if (subscription != null) {
                 try {
-                    this.registerSubscription(subscriptionChannel, new AnnotatedSubscription(method));
+                    this.registerSubscription(subscription.value(), subscription.key(), new AnnotatedSubscription(method));
+                } catch (final PatRegistrationException e) {
+                    Pat.LOGGER.error("An error occurred while registering a listener: ", e);
+                }
+            }
+
+            final PatKeyspace keyspace = this.getKeyspaceFromMethod(method);
+            if (keyspace != null) {
+                try {
+                    this.registerKeyspaceSubscription(new KeyspaceSubscription(keyspace.prefix(), Arrays.asList(keyspace.events()), method));
                 } catch (final PatRegistrationException e) {
                     Pat.LOGGER.error("An error occurred while registering a listener: ", e);
                 }
@@ -48,12 +83,23 @@ public final class PatHandler {
         }
     }
 
-    private String getSubscriptionFromMethod(final Method method) {
+    private PatSubscribe getSubscriptionFromMethod(final Method method) {
         final PatSubscribe annotation = method.getAnnotation(PatSubscribe.class);
         if (annotation != null) {
             final Class<?>[] parameters = method.getParameterTypes();
             if (parameters.length == 1 && parameters[0].equals(PatEvent.class)) {
-                return annotation.value();
+                return annotation;
+            }
+        }
+        return null;
+    }
+
+    private PatKeyspace getKeyspaceFromMethod(final Method method) {
+        final PatKeyspace annotation = method.getAnnotation(PatKeyspace.class);
+        if (annotation != null) {
+            final Class<?>[] parameters = method.getParameterTypes();
+            if (parameters.length == 1 && parameters[0].equals(PatKeyspaceEvent.class)) {
+                return annotation;
             }
         }
         return null;
@@ -64,18 +110,99 @@ public final class PatHandler {
         this.channels.computeIfAbsent(channel, k -> new CopyOnWriteArrayList<>()).add(subscription);
     }
 
+    /**
+     * Registers a subscription receiving only the messages published on the channel with the given routing key.
+     * If the key is null or empty, the subscription receives every message of the channel.
+     *
+     * @param channel      the channel to subscribe to
+     * @param key          the routing key to subscribe to
+     * @param subscription the subscription
+     */
+    public void registerSubscription(final String channel,
+                                     final String key,
+                                     final PatSubscription subscription) {
+        if (key == null || key.isEmpty()) {
+            this.registerSubscription(channel, subscription);
+            return;
+        }
+
+        this.routes.computeIfAbsent(channel, k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(key, k -> new CopyOnWriteArrayList<>())
+                .add(subscription);
+    }
+
+    /**
+     * Registers a subscription to keyspace notifications.
+     * The subscription only receives notifications once it has been added to the {@link PatKeyspaceIndex}.
+     *
+     * @param subscription the subscription
+     */
+    public void registerKeyspaceSubscription(final KeyspaceSubscription subscription) {
+        this.keyspaceSubscriptions.add(subscription);
+    }
+
+    /**
+     * Checks if any subscription of this handler is interested in a message published on the given channel and key.
+     * This is used to discard messages before their body is decompressed.
+     *
+     * @param channel the channel the message was published to
+     * @param key     the routing key of the message, or null
+     * @return true if at least one subscription would receive the message, false otherwise
+     */
+    public boolean accepts(final String channel, final String key) {
+        if (this.channels.containsKey(channel)) return true;
+        if (key == null) return false;
+
+        final Map<String, List<PatSubscription>> keys = this.routes.get(channel);
+        return keys != null && keys.containsKey(key);
+    }
+
     /**
      * Handles a PatEvent by invoking the corresponding method in the listener object.
      *
      * @param event the PatEvent to handle
      */
     public void handle(final PatEvent event) {
-        final List<PatSubscription> subscriptions = this.channels.get(event.channel());
+        this.dispatch(this.channels.get(event.channel()), event);
+
+        if (event.key() != null) {
+            final Map<String, List<PatSubscription>> keys = this.routes.get(event.channel());
+            if (keys != null) {
+                this.dispatch(keys.get(event.key()), event);
+            }
+        }
+    }
+
+    /**
+     * Handles a PatKeyspaceEvent by invoking the given keyspace subscription of this handler.
+     *
+     * @param subscription the keyspace subscription
+     * @param event        the PatKeyspaceEvent to handle
+     */
+    public void handleKeyspace(final KeyspaceSubscription subscription, final PatKeyspaceEvent event) {
+        try {
+            if (this.watchdog != null) {
+                this.watchdog.handle(this.listener, subscription, event);
+            } else {
+                subscription.handle(this.listener, event);
+            }
+        } catch (final PatEventInvocationException e) {
+            Pat.LOGGER.error(e.getMessage(), e.getCause());
+        } catch (final RuntimeException e) {
+            Pat.LOGGER.error("An error occurred while handling a keyspace notification: ", e);
+        }
+    }
+
+    private void dispatch(final List<PatSubscription> subscriptions, final PatEvent event) {
         if (subscriptions == null) return;
 
         for (final PatSubscription subscription : subscriptions) {
             try {
-                subscription.handle(listener, event);
+                if (this.watchdog != null) {
+                    this.watchdog.handle(listener, subscription, event);
+                } else {
+                    subscription.handle(listener, event);
+                }
             } catch (final PatEventInvocationException e) {
                 Pat.LOGGER.error(e.getMessage(), e.getCause());
             }
@@ -83,12 +210,25 @@ public final class PatHandler {
     }
 
     /**
-     * Returns a set of the channels in the methods map.
+     * Returns a set of the channels in the methods map, including the ones subscribed with a routing key.
      *
      * @return a set of the channels in the methods map
      */
     public Set<String> getChannels() {
-        return this.channels.keySet();
+        if (this.routes.isEmpty()) return this.channels.keySet();
+
+        final Set<String> channels = new HashSet<>(this.channels.keySet());
+        channels.addAll(this.routes.keySet());
+        return channels;
+    }
+
+    /**
+     * Returns the subscriptions to keyspace notifications.
+     *
+     * @return an unmodifiable view of the keyspace subscriptions
+     */
+    public List<KeyspaceSubscription> getKeyspaceSubscriptions() {
+        return Collections.unmodifiableList(this.keyspaceSubscriptions);
     }
 
     /**
@@ -97,7 +237,7 @@ public final class PatHandler {
      * @return true if the methods map is empty, false otherwise
      */
     public boolean isEmpty() {
-        return this.channels.isEmpty();
+        return this.channels.isEmpty() && this.routes.isEmpty() && this.keyspaceSubscriptions.isEmpty();
     }
 
     /**
@@ -0,0 +1,160 @@
+package com.fabiodm.pat.handler;
+
+import com.fabiodm.pat.api.event.PatKeyspaceEvent;
+import com.fabiodm.pat.api.event.PatKeyspaceOperation;
+import com.fabiodm.pat.handler.impl.KeyspaceSubscription;
+
+import java.nio.charset.StandardCharsets;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * This class dispatches the keyspace notifications to the subscriptions of every handler.
+ * The subscriptions are stored in a prefix trie shared across handlers, so a notification only walks
+ * the characters of its key once, no matter how many prefixes are subscribed.
+ * Notifications are received on the keyevent channels, {@code __keyevent@<db>__:<event>}, whose messages are the keys.
+ */
+public final class PatKeyspaceIndex {
+
+    private static final String CHANNEL_PREFIX = "__keyevent@";
+    private static final String CHANNEL_SEPARATOR = "__:";
+
+    // The root of the trie, holding the subscriptions without a prefix.
+    private final Node root = new Node();
+    // The number of subscriptions per operation, guarded by this.
+    private final int[] subscriptions = new int[PatKeyspaceOperation.values().length];
+
+    /**
+     * Returns the pattern of the channels notifying the given operation in every database.
+     *
+     * @param operation the operation
+     * @return the channel pattern
+     */
+    public static String channelPattern(final PatKeyspaceOperation operation) {
+        return CHANNEL_PREFIX + "*" + CHANNEL_SEPARATOR + operation.getEventName();
+    }
+
+    /**
+     * Adds a subscription of the given handler to the trie.
+     *
+     * @param handler      the handler owning the subscription
+     * @param subscription the subscription
+     * @return the operations that had no subscriptions before, whose channels must be subscribed to
+     */
+    public synchronized Set<PatKeyspaceOperation> register(final PatHandler handler, final KeyspaceSubscription subscription) {
+        Node node = this.root;
+        final String prefix = subscription.getPrefix();
+        for (int i = 0; i < prefix.length(); i++) {
+            node = node.children.computeIfAbsent(prefix.charAt(i), c -> new Node());
+        }
+
+        long operations = 0;
+        final Set<PatKeyspaceOperation> added = EnumSet.noneOf(PatKeyspaceOperation.class);
+        for (final PatKeyspaceOperation operation : subscription.getOperations()) {
+            operations |= 1L << operation.ordinal();
+            if (this.subscriptions[operation.ordinal()]++ == 0) {
+                added.add(operation);
+            }
+        }
+
+        node.entries.add(new Entry(handler, subscription, operations));
+        return added;
+    }
+
+    /**
+     * Removes every subscription of the given handler from the trie.
+     *
+     * @param handler the handler owning the subscriptions
+     * @return the operations left without subscriptions, whose channels can be unsubscribed from
+     */
+    public synchronized Set<PatKeyspaceOperation> unregister(final PatHandler handler) {
+        final Set<PatKeyspaceOperation> removed = EnumSet.noneOf(PatKeyspaceOperation.class);
+        this.unregister(this.root, handler, removed);
+        return removed;
+    }
+
+    /**
+     * Dispatches a notification received on a keyevent channel to the subscriptions interested in it.
+     * Messages received on other channels, or notifying unknown operations, are ignored.
+     *
+     * @param channel the channel the notification was received on
+     * @param message the key the notification is about
+     */
+    public void dispatch(final String channel, final byte[] message) {
+        if (!channel.startsWith(CHANNEL_PREFIX)) return;
+
+        final int separator = channel.indexOf(CHANNEL_SEPARATOR, CHANNEL_PREFIX.length());
+        if (separator < 0) return;
+
+        final PatKeyspaceOperation operation = PatKeyspaceOperation.fromEventName(
+                channel.substring(separator + CHANNEL_SEPARATOR.length()));
+        if (operation == null) return;
+
+        final int db;
+        try {
+            db = Integer.parseInt(channel, CHANNEL_PREFIX.length(), separator, 10);
+        } catch (final NumberFormatException e) {
+            return;
+        }
+
+        final String key = new String(message, StandardCharsets.UTF_8);
+        final long mask = 1L << operation.ordinal();
+
+        // The event is only created once a subscription is interested in it.
+        PatKeyspaceEvent event = null;
+        Node node = this.root;
+        int depth = 0;
+        while (node != null) {
+            for (final Entry entry : node.entries) {
+                if ((entry.operations & mask) == 0) continue;
+
+                if (event == null) {
+                    event = new PatKeyspaceEvent(db, key, operation);
+                }
+                entry.handler.handleKeyspace(entry.subscription, event);
+            }
+
+            if (depth == key.length()) break;
+            node = node.children.get(key.charAt(depth++));
+        }
+    }
+
+    /*
+     * Removes the subscriptions of the handler below the given node, and returns true if the node is left empty.
+     */
+    private boolean unregister(final Node node, final PatHandler handler, final Set<PatKeyspaceOperation> removed) {
+        for (final Entry entry : node.entries) {
+            if (entry.handler != handler) continue;
+
+            node.entries.remove(entry);
+            for (final PatKeyspaceOperation operation : entry.subscription.getOperations()) {
+                if (--this.subscriptions[operation.ordinal()] == 0) {
+                    removed.add(operation);
+                }
+            }
+        }
+
+        node.children.values().removeIf(child -> this.unregister(child, handler, removed));
+        return node.entries.isEmpty() && node.children.isEmpty();
+    }
+
+    /*
+     * A node of the trie, reached by the characters of a prefix.
+     * The nodes are only modified while holding the lock of the index, and read without locking.
+     */
+    private static final class Node {
+
+        private final Map<Character, Node> children = new ConcurrentHashMap<>();
+        private final List<Entry> entries = new CopyOnWriteArrayList<>();
+    }
+
+    /*
+     * A subscription stored in the trie, with the operations it listens to as a bit mask.
+     */
+    private record Entry(PatHandler handler, KeyspaceSubscription subscription, long operations) {
+    }
+}
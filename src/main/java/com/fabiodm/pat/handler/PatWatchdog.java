@@ -0,0 +1,288 @@
+package com.fabiodm.pat.handler;
+
+import com.fabiodm.pat.Pat;
+import com.fabiodm.pat.api.event.PatEvent;
+import com.fabiodm.pat.api.event.PatKeyspaceEvent;
+import com.fabiodm.pat.exception.PatEventInvocationException;
+import com.fabiodm.pat.handler.impl.KeyspaceSubscription;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class times every subscription invocation against a budget.
+ * Handlers run on the thread delivering the messages, so a single slow handler delays every channel:
+ * when an invocation runs over budget, the watchdog samples the stack of the thread running it and logs
+ * which listener and handler are stuck. If a slow lane executor is configured, the subscription is also
+ * quarantined, and its next events are handled on the slow lane so that the other channels keep flowing.
+ * The events of a quarantined subscription are still handled one at a time and in order, whatever the slow lane.
+ * Both the channel subscriptions and the keyspace subscriptions are timed.
+ */
+public final class PatWatchdog implements AutoCloseable {
+
+    private final long budgetNanos;
+    // The executor running the quarantined subscriptions, null if quarantine is disabled.
+    private final Executor slowLane;
+
+    // The invocation slot of every thread dispatching events, scanned by the monitor.
+    private final Set<Invocation> invocations = ConcurrentHashMap.newKeySet();
+    private final ThreadLocal<Invocation> currentInvocation = ThreadLocal.withInitial(() -> {
+        final Invocation invocation = new Invocation(Thread.currentThread());
+        this.invocations.add(invocation);
+        return invocation;
+    });
+
+    // The quarantined subscriptions, PatSubscription or KeyspaceSubscription instances.
+    private final Set<Object> quarantined = ConcurrentHashMap.newKeySet();
+    // The queue of the events of every quarantined subscription, drained one at a time on the slow lane.
+    private final Map<Object, Lane> lanes = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService monitor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "pat-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Constructs a PatWatchdog that only reports the subscriptions running over budget.
+     *
+     * @param budget the maximum time a subscription invocation should take
+     */
+    public PatWatchdog(final Duration budget) {
+        this(budget, null);
+    }
+
+    /**
+     * Constructs a PatWatchdog that reports and quarantines the subscriptions running over budget.
+     *
+     * @param budget   the maximum time a subscription invocation should take
+     * @param slowLane the executor handling the events of the quarantined subscriptions, or null to disable quarantine
+     * @throws IllegalArgumentException if the budget is not positive
+     */
+    public PatWatchdog(final Duration budget, final Executor slowLane) {
+        if (budget.isNegative() || budget.isZero()) {
+            throw new IllegalArgumentException("The watchdog budget must be positive");
+        }
+
+        this.budgetNanos = budget.toNanos();
+        this.slowLane = slowLane;
+
+        // Scan often enough to catch an invocation shortly after it runs over budget.
+        final long period = Math.max(TimeUnit.MILLISECONDS.toNanos(5), this.budgetNanos / 4);
+        this.monitor.scheduleAtFixedRate(this::scan, period, period, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the subscriptions that have been moved to the slow lane,
+     * {@link PatSubscription} or {@link KeyspaceSubscription} instances.
+     *
+     * @return an unmodifiable view of the quarantined subscriptions
+     */
+    public Set<Object> getQuarantined() {
+        return Collections.unmodifiableSet(this.quarantined);
+    }
+
+    /**
+     * Moves a quarantined subscription back to the dispatch thread.
+     * The events already queued on the slow lane are still handled there, possibly alongside the next ones.
+     *
+     * @param subscription the subscription to release
+     */
+    public void release(final Object subscription) {
+        this.quarantined.remove(subscription);
+        this.lanes.remove(subscription);
+    }
+
+    /**
+     * Handles an event with the given subscription, timing the invocation
+     * or queueing it on the slow lane if the subscription is quarantined.
+     *
+     * @param listener     the listener object owning the subscription
+     * @param subscription the subscription
+     * @param event        the event to handle
+     * @throws PatEventInvocationException if the subscription fails while running on the calling thread
+     */
+    void handle(final Object listener, final PatSubscription subscription, final PatEvent event) {
+        this.invoke(listener, subscription, () -> subscription.handle(listener, event));
+    }
+
+    /**
+     * Handles a keyspace notification with the given subscription, timing the invocation
+     * or queueing it on the slow lane if the subscription is quarantined.
+     *
+     * @param listener     the listener object owning the subscription
+     * @param subscription the keyspace subscription
+     * @param event        the notification to handle
+     * @throws PatEventInvocationException if the subscription fails while running on the calling thread
+     */
+    void handle(final Object listener, final KeyspaceSubscription subscription, final PatKeyspaceEvent event) {
+        this.invoke(listener, subscription, () -> subscription.handle(listener, event));
+    }
+
+    private void invoke(final Object listener, final Object subscription, final Runnable call) {
+        if (!this.quarantined.isEmpty() && this.quarantined.contains(subscription)) {
+            this.lanes.computeIfAbsent(subscription, key -> new Lane()).submit(call);
+            return;
+        }
+
+        final Invocation invocation = this.currentInvocation.get();
+        final long start = System.nanoTime();
+        invocation.begin(listener, subscription, start);
+        try {
+            call.run();
+        } finally {
+            final boolean reported = invocation.end();
+            final long elapsed = System.nanoTime() - start;
+            if (elapsed > this.budgetNanos && !reported) {
+                Pat.LOGGER.warn("Handler {} of listener {} took {} ms, over the budget of {} ms",
+                        subscription,
+                        listener.getClass().getName(),
+                        TimeUnit.NANOSECONDS.toMillis(elapsed),
+                        TimeUnit.NANOSECONDS.toMillis(this.budgetNanos));
+                this.quarantine(subscription);
+            }
+        }
+    }
+
+    /**
+     * Stops the monitor thread.
+     * The slow lane executor is not shut down, since it is owned by the caller.
+     */
+    @Override
+    public void close() {
+        this.monitor.shutdownNow();
+    }
+
+    private static void handleSlow(final Runnable call) {
+        try {
+            call.run();
+        } catch (final PatEventInvocationException e) {
+            Pat.LOGGER.error(e.getMessage(), e.getCause());
+        } catch (final RuntimeException e) {
+            Pat.LOGGER.error("An error occurred while handling an event on the slow lane: ", e);
+        }
+    }
+
+    private void scan() {
+        final long now = System.nanoTime();
+        for (final Invocation invocation : this.invocations) {
+            if (!invocation.thread.isAlive()) {
+                this.invocations.remove(invocation);
+                continue;
+            }
+
+            final Object subscription = invocation.subscription;
+            final Object listener = invocation.listener;
+            final long start = invocation.start;
+            if (subscription == null || listener == null || now - start <= this.budgetNanos || !invocation.report(start)) continue;
+
+            final StringBuilder stack = new StringBuilder();
+            for (final StackTraceElement element : invocation.thread.getStackTrace()) {
+                stack.append("\n\tat ").append(element);
+            }
+
+            Pat.LOGGER.warn("Handler {} of listener {} has been running for {} ms on thread {}, over the budget of {} ms:{}",
+                    subscription,
+                    listener.getClass().getName(),
+                    TimeUnit.NANOSECONDS.toMillis(now - start),
+                    invocation.thread.getName(),
+                    TimeUnit.NANOSECONDS.toMillis(this.budgetNanos),
+                    stack);
+            this.quarantine(subscription);
+        }
+    }
+
+    private void quarantine(final Object subscription) {
+        if (this.slowLane != null && this.quarantined.add(subscription)) {
+            Pat.LOGGER.warn("Handler {} has been moved to the slow lane", subscription);
+        }
+    }
+
+    /*
+     * The events of a quarantined subscription waiting for the slow lane.
+     * At most one task drains the queue at a time, so the subscription is never called concurrently or out of order.
+     */
+    private final class Lane implements Runnable {
+
+        private final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        private void submit(final Runnable call) {
+            this.queue.add(call);
+            if (!this.scheduled.compareAndSet(false, true)) return;
+
+            try {
+                PatWatchdog.this.slowLane.execute(this);
+            } catch (final RejectedExecutionException e) {
+                Pat.LOGGER.warn("The slow lane rejected the events of a quarantined handler, handling them inline");
+                this.run();
+            }
+        }
+
+        @Override
+        public void run() {
+            Runnable call;
+            while ((call = this.queue.poll()) != null) {
+                handleSlow(call);
+            }
+            this.scheduled.set(false);
+
+            // An event queued after the last poll but before the flag was cleared would otherwise be left behind.
+            if (!this.queue.isEmpty() && this.scheduled.compareAndSet(false, true)) {
+                try {
+                    PatWatchdog.this.slowLane.execute(this);
+                } catch (final RejectedExecutionException e) {
+                    this.run();
+                }
+            }
+        }
+    }
+
+    /*
+     * The subscription a thread is currently running, written by that thread and read by the monitor.
+     */
+    private static final class Invocation {
+
+        private final Thread thread;
+        private volatile Object listener;
+        private volatile Object subscription;
+        private volatile long start;
+        // The start of the invocation already reported by the monitor, to report it only once.
+        private volatile long reportedStart = -1;
+
+        private Invocation(final Thread thread) {
+            this.thread = thread;
+        }
+
+        private void begin(final Object listener, final Object subscription, final long start) {
+            this.listener = listener;
+            this.start = start;
+            this.subscription = subscription;
+        }
+
+        private boolean end() {
+            final long start = this.start;
+            this.subscription = null;
+            this.listener = null;
+            return this.reportedStart == start;
+        }
+
+        private boolean report(final long start) {
+            if (this.reportedStart == start) return false;
+
+            this.reportedStart = start;
+            return true;
+        }
+    }
+}
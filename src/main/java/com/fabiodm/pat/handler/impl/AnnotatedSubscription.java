@@ -43,4 +43,9 @@ public class AnnotatedSubscription extends PatSubscription {
             ), e);
         }
     }
+
+    @Override
+    public String toString() {
+        return this.handlerMethod.getDeclaringClass().getName() + "#" + this.handlerMethod.getName();
+    }
 }
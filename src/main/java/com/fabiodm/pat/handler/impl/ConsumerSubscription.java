@@ -23,4 +23,9 @@ public class ConsumerSubscription extends PatSubscription {
     public void handle(Object listener, PatEvent event) {
         this.consumer.accept(event);
     }
+
+    @Override
+    public String toString() {
+        return "Consumer " + this.consumer.getClass().getName();
+    }
 }
@@ -0,0 +1,94 @@
+package com.fabiodm.pat.handler.impl;
+
+import com.fabiodm.pat.api.event.PatKeyspaceEvent;
+import com.fabiodm.pat.api.event.PatKeyspaceOperation;
+import com.fabiodm.pat.exception.PatEventInvocationException;
+import com.fabiodm.pat.exception.PatRegistrationException;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/*
+ * This class represents a subscription to the keyspace notifications of the keys starting with a prefix.
+ * It is handled either by a method annotated with PatKeyspace or by a Consumer.
+ */
+public final class KeyspaceSubscription {
+
+    private final String prefix;
+    private final Set<PatKeyspaceOperation> operations;
+    private final Method handlerMethod;
+    private final Consumer<PatKeyspaceEvent> consumer;
+
+    /*
+     * Constructor for a subscription handled by a method annotated with PatKeyspace.
+     */
+    public KeyspaceSubscription(final String prefix, final Collection<PatKeyspaceOperation> operations, final Method handlerMethod) {
+        this(prefix, operations, handlerMethod, null);
+        if (!this.handlerMethod.trySetAccessible()) {
+            throw new PatRegistrationException(String.format("Handler method %s from class %s not accessible.",
+                    handlerMethod.getName(),
+                    handlerMethod.getDeclaringClass().getSimpleName()
+            ));
+        }
+    }
+
+    /*
+     * Constructor for a subscription handled by a Consumer.
+     */
+    public KeyspaceSubscription(final String prefix, final Collection<PatKeyspaceOperation> operations, final Consumer<PatKeyspaceEvent> consumer) {
+        this(prefix, operations, null, consumer);
+    }
+
+    private KeyspaceSubscription(final String prefix,
+                                 final Collection<PatKeyspaceOperation> operations,
+                                 final Method handlerMethod,
+                                 final Consumer<PatKeyspaceEvent> consumer) {
+        if (operations.isEmpty()) {
+            throw new PatRegistrationException("A keyspace subscription must listen to at least one operation.");
+        }
+
+        this.prefix = prefix;
+        this.operations = EnumSet.copyOf(operations);
+        this.handlerMethod = handlerMethod;
+        this.consumer = consumer;
+    }
+
+    public String getPrefix() {
+        return this.prefix;
+    }
+
+    public Set<PatKeyspaceOperation> getOperations() {
+        return this.operations;
+    }
+
+    /*
+     * Method invoked when the PatKeyspaceEvent is handled.
+     * */
+    public void handle(final Object listener, final PatKeyspaceEvent event) {
+        if (this.consumer != null) {
+            this.consumer.accept(event);
+            return;
+        }
+
+        try {
+            this.handlerMethod.invoke(listener, event);
+        } catch (final InvocationTargetException | IllegalAccessException e) {
+            throw new PatEventInvocationException(String.format("Error invoking handler method %s from class %s.",
+                    handlerMethod.getName(),
+                    handlerMethod.getDeclaringClass().getSimpleName()
+            ), e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        final String target = this.consumer != null
+                ? "Consumer " + this.consumer.getClass().getName()
+                : this.handlerMethod.getDeclaringClass().getName() + "#" + this.handlerMethod.getName();
+        return target + " on " + this.prefix + "* " + this.operations;
+    }
+}